@@ -56,6 +56,9 @@ public class ConceptDatalogger extends LinearOpMode
 
         telemetry.setMsTransmissionInterval(50);
 
+        // Optional: warm up the datalogger, so the first lines after START log as fast as the rest.
+        // datalog.prepare();
+
         waitForStart();
 
         datalog.opModeStatus.set("RUNNING");
@@ -69,7 +72,10 @@ public class ConceptDatalogger extends LinearOpMode
             datalog.loopCounter.set(i);
             datalog.battery.set(battery.getVoltage());
 
+            // Optional: time this part of the loop, logged as "IMU Read ms"; see the profiler below.
+            // datalog.profiler.begin("IMU Read");
             Orientation orientation = imu.getAngularOrientation();
+            // datalog.profiler.end();
 
             datalog.yaw.set(orientation.firstAngle);
             datalog.pitch.set(orientation.secondAngle);
@@ -87,6 +93,9 @@ public class ConceptDatalogger extends LinearOpMode
             telemetry.addData("Loop Counter", datalog.loopCounter);
             telemetry.addData("Battery", datalog.battery);
 
+            // Optional: show percentiles of the time between writeLine() calls.
+            // telemetry.addData("Loop Time", datalog.loopTime());
+
             telemetry.update();
 
             sleep(20);
@@ -115,8 +124,18 @@ public class ConceptDatalogger extends LinearOpMode
         public Datalogger.GenericField roll         = new Datalogger.GenericField("Roll");
         public Datalogger.GenericField battery      = new Datalogger.GenericField("Battery");
 
+        // Optional: time marked sections of the loop; also uncomment setProfiler() below.
+        // public DatalogProfiler profiler = new DatalogProfiler("IMU Read");
+
         public Datalog(String name)
         {
+            // Optional: describe the columns for analysis scripts; also uncomment setColumnMetadata() below.
+            // yaw.setType(Datalogger.ColumnType.NUMBER).setUnits("deg").setPrecision(3);
+            // pitch.setType(Datalogger.ColumnType.NUMBER).setUnits("deg").setPrecision(3);
+            // roll.setType(Datalogger.ColumnType.NUMBER).setUnits("deg").setPrecision(3);
+            // battery.setType(Datalogger.ColumnType.NUMBER).setUnits("V").setPrecision(3)
+            //         .setDescription("Control Hub battery voltage");
+
             // Build the underlying datalog object
             datalogger = new Datalogger.Builder()
 
@@ -126,6 +145,27 @@ public class ConceptDatalogger extends LinearOpMode
                     // Request an automatic timestamp field
                     .setAutoTimestamp(Datalogger.AutoTimestamp.DECIMAL_SECONDS)
 
+                    // Optional: write mean, min, max, etc. of each numeric field to datalog_01_summary.txt.
+                    // .setSummaryStats(true)
+
+                    // Optional: write the column descriptions above to datalog_01_columns.txt.
+                    // .setColumnMetadata(true)
+
+                    // Optional: keep a short copy, quick to open in OnBot Java, in datalog_01_preview.txt.
+                    // .setPreviewLines(2000)
+
+                    // Optional: stream each line to a laptop on TCP port 5800.
+                    // See DatalogLiveTail.java.
+                    // .setLiveTail(5800)
+
+                    // Optional: also send every line to your own Datalogger.Sink, e.g. a
+                    // DatalogMemoryRing of the latest 50 lines, to show on telemetry.
+                    // .addSink(new DatalogMemoryRing(50))
+
+                    // Optional: delete the oldest datalogs once there are more than 100.
+                    // See DatalogRetention.java for size and age limits.
+                    // .setRetention(new DatalogRetention().setMaxFiles(100))
+
                     // Tell it about the fields we care to log.
                     // Note that order *IS* important here! The order in which we list
                     // the fields is the order in which they will appear in the log.
@@ -137,6 +177,9 @@ public class ConceptDatalogger extends LinearOpMode
                             roll,
                             battery
                     )
+
+                    // Optional: add the profiler's section columns after the fields.
+                    // .setProfiler(profiler)
                     .build();
         }
 
@@ -146,5 +189,17 @@ public class ConceptDatalogger extends LinearOpMode
         {
             datalogger.writeLine();
         }
+
+        // Call during INIT to warm up the logging code; see Datalogger.prepare().
+        public void prepare()
+        {
+            datalogger.prepare();
+        }
+
+        // Percentiles of the time between writeLine() calls, for telemetry.
+        public DatalogHistogram loopTime()
+        {
+            return datalogger.getLoopTimeHistogram();
+        }
     }
 }
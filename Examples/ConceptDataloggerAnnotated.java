@@ -0,0 +1,141 @@
+/*
+This sample FTC OpMode logs the same data as ConceptDatalogger.java, but
+each column is a plain field of the Datalog class, marked with
+@Datalogger.Log. The OpMode assigns the fields directly. The Datalog class
+gives the Datalogger a lambda that reads each field, in bindFields(), and
+the Datalogger calls these on each writeLine().
+
+For instructions, see the tutorial at the FTC Wiki:
+https://github.com/FIRST-Tech-Challenge/FtcRobotController/wiki/Datalogging
+
+Column order is set by the order value of each annotation. Fields may be any
+primitive type or a String; numbers are formatted like GenericField.set().
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import com.qualcomm.hardware.bosch.BNO055IMU;
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
+
+@TeleOp(name = "Concept Datalogger Annotated", group = "Datalogging")
+public class ConceptDataloggerAnnotated extends LinearOpMode
+{
+    Datalog datalog;
+    BNO055IMU imu;
+    VoltageSensor battery;
+
+    @Override
+    public void runOpMode() throws InterruptedException
+    {
+        // Get devices from the hardwareMap.
+        // If needed, change "Control Hub" to (e.g.) "Expansion Hub 1".
+        battery = hardwareMap.voltageSensor.get("Control Hub");
+        imu = hardwareMap.get(BNO055IMU.class, "imu");
+
+        // Initialize the datalog
+        datalog = new Datalog("datalog_02");
+
+        datalog.opModeStatus = "INIT";
+        datalog.battery = battery.getVoltage();
+        datalog.writeLine();
+
+        BNO055IMU.Parameters parameters = new BNO055IMU.Parameters();
+        parameters.angleUnit = BNO055IMU.AngleUnit.DEGREES;
+        imu.initialize(parameters);
+
+        // Optional: warm up the datalogger, so the first lines after START log as fast as the rest.
+        // datalog.prepare();
+
+        waitForStart();
+
+        datalog.opModeStatus = "RUNNING";
+
+        for (int i = 0; opModeIsActive(); i++)
+        {
+            datalog.loopCounter = i;
+            datalog.battery = battery.getVoltage();
+
+            Orientation orientation = imu.getAngularOrientation();
+            datalog.yaw = orientation.firstAngle;
+            datalog.pitch = orientation.secondAngle;
+            datalog.roll = orientation.thirdAngle;
+
+            // The logged timestamp is taken when writeLine() is called.
+            datalog.writeLine();
+
+            telemetry.addData("Yaw", datalog.yaw);
+            telemetry.addData("Pitch", datalog.pitch);
+            telemetry.addData("Roll", datalog.roll);
+            telemetry.addLine();
+            telemetry.addData("OpMode Status", datalog.opModeStatus);
+            telemetry.addData("Loop Counter", datalog.loopCounter);
+            telemetry.addData("Battery", datalog.battery);
+            telemetry.update();
+
+            sleep(20);
+        }
+
+        /*
+         * The datalog is automatically closed and flushed to disk after
+         * the OpMode ends - no need to do that manually :')
+         */
+    }
+
+    /*
+     * This class holds all the values that will go into the datalog.
+     */
+    public static class Datalog implements Datalogger.LogSource
+    {
+        private final Datalogger datalogger;
+
+        // Each annotated field is one column. The name is the column heading.
+        @Datalogger.Log(value = "OpModeStatus", order = 1) public String opModeStatus;
+        @Datalogger.Log(value = "Loop Counter", order = 2) public int loopCounter;
+        @Datalogger.Log(value = "Yaw",          order = 3, units = "deg") public float yaw;
+        @Datalogger.Log(value = "Pitch",        order = 4, units = "deg") public float pitch;
+        @Datalogger.Log(value = "Roll",         order = 5, units = "deg") public float roll;
+        @Datalogger.Log(value = "Battery",      order = 6, units = "V")   public double battery;
+
+        public Datalog(String name)
+        {
+            datalogger = new Datalogger.Builder()
+                    .setFilename(name)
+                    .setAutoTimestamp(Datalogger.AutoTimestamp.DECIMAL_SECONDS)
+
+                    // Find the annotated fields of this object, once.
+                    .addFieldsFrom(this)
+
+                    // Optional: write each column's type and units to datalog_02_columns.txt.
+                    // .setColumnMetadata(true)
+                    .build();
+        }
+
+        // Called once by addFieldsFrom(): how to read each annotated field.
+        @Override
+        public void bindFields(Datalogger.FieldBinder binder)
+        {
+            binder.bindString("opModeStatus", () -> opModeStatus)
+                  .bindLong("loopCounter", () -> loopCounter)
+                  .bindDouble("yaw", () -> yaw)
+                  .bindDouble("pitch", () -> pitch)
+                  .bindDouble("roll", () -> roll)
+                  .bindDouble("battery", () -> battery);
+        }
+
+        public void writeLine()
+        {
+            datalogger.writeLine();
+        }
+
+        public void prepare()
+        {
+            datalogger.prepare();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+This DatalogHistogram class records the loop period of an OpMode: the time
+between consecutive calls to Datalogger.writeLine(). It replaces charting
+the "d ms" column by hand to see loop-time jitter.
+
+Most users will not need to edit this class. Every Datalogger keeps one;
+the OpMode can read live percentiles from Datalogger.getLoopTimeHistogram(),
+for example to show on telemetry. The loop-time row is written to the
+summary file when the Builder calls setSummaryStats(true), or on its own
+with setLoopTimeSummary(true); by default no summary file is written.
+
+Values are counted in fixed log-linear buckets, in the style of an HDR
+histogram: 64 linear sub-buckets for each power of two, so every reported
+percentile is within about 1.5% of the true value. All buckets are allocated
+when the histogram is created; recording a value never allocates.
+
+Intervals are recorded in microseconds, from 1 microsecond up to about
+67 seconds. Longer intervals are counted in the top bucket, but the exact
+maximum is always kept.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+public class DatalogHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 26;
+    private static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+    private double sumOfSquares;
+
+    public void recordValue(long micros)
+    {
+        if (micros < 0)
+        {
+            micros = 0;
+        }
+
+        counts[bucketIndex(micros)]++;
+        totalCount++;
+        sum += micros;
+        sumOfSquares += (double) micros * micros;
+
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+        sumOfSquares = 0;
+    }
+
+    public long getCount()
+    {
+        return totalCount;
+    }
+
+    // Value (in microseconds) at the given percentile, 0.0 to 100.0.
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * totalCount);
+        rank = Math.max(1, rank);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(max, Math.max(min, bucketValue(i)));
+            }
+        }
+
+        return max;
+    }
+
+    public double getPercentileMs(double percentile)
+    {
+        return getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double getMeanMs()
+    {
+        return totalCount > 0 ? sum / totalCount / 1000.0 : Double.NaN;
+    }
+
+    public double getStdDevMs()
+    {
+        if (totalCount < 2)
+        {
+            return Double.NaN;
+        }
+        double mean = sum / totalCount;
+        double variance = (sumOfSquares - totalCount * mean * mean) / (totalCount - 1);
+        return Math.sqrt(Math.max(0, variance)) / 1000.0;
+    }
+
+    public double getMinMs()
+    {
+        return totalCount > 0 ? min / 1000.0 : Double.NaN;
+    }
+
+    public double getMaxMs()
+    {
+        return totalCount > 0 ? max / 1000.0 : Double.NaN;
+    }
+
+    // Allows user OpMode telemetry to display the loop-time percentiles.
+    @Override
+    public String toString()
+    {
+        return String.format("p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f ms",
+                getPercentileMs(50), getPercentileMs(99), getPercentileMs(99.9), getMaxMs());
+    }
+
+    /*
+     * Values below 2 * SUB_BUCKET_COUNT get one bucket each. Above that, each
+     * power of two is split into SUB_BUCKET_COUNT equal sub-buckets, indexed by
+     * the top SUB_BUCKET_BITS bits of the value below its leading one-bit.
+     */
+    private static int bucketIndex(long value)
+    {
+        if (value < 2 * SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int index = (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+        return Math.min(BUCKET_COUNT - 1, index);
+    }
+
+    // The middle of the range of values counted by a bucket.
+    private static long bucketValue(int index)
+    {
+        if (index < 2 * SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+}
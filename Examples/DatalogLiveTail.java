@@ -0,0 +1,258 @@
+/*
+This DatalogLiveTail class streams a datalog's lines, as they are written,
+to programs connected over the network, e.g. to chart values live on a
+laptop during practice without downloading files.
+
+Most users will not need to edit this class. Datalogger starts it when the
+OpMode calls setLiveTail() on the Datalogger.Builder:
+
+    .setLiveTail(5800)          // every line, on TCP port 5800
+    .setLiveTail(5800, 5)       // every 5th line
+
+Connect to the Robot Controller's address and that port (for example
+192.168.43.1:5800 from a laptop on the robot's Wi-Fi network). Any number of
+programs can connect; each receives the datalog's current header line, then
+each new line as plain CSV text, exactly as written to the file. A header
+line is sent again when columns are added. Tools/analysis has a simple
+client, DatalogTailClient.
+
+Each line is formatted and encoded once, for all of the datalog's sinks
+(see Datalogger.Sink); its bytes are copied into a fixed ring of recent
+lines. Each connection has its own thread that sends from the ring at its
+own pace, so the cost to the datalog does not depend on how many programs
+are connected, and a slow one never holds up the OpMode: if it falls a
+whole ring behind, it skips ahead to the newest line (and gets the header
+again), and the skipped lines are counted in getDroppedLines().
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class DatalogLiveTail implements Datalogger.Sink
+{
+    private static final int RING_LINES = 1024;
+    private static final long IDLE_PARK_NANOS = 2000000;
+
+    private final ServerSocket serverSocket;
+    private final int everyNthLine;
+
+    // Written only by the datalog's writing thread; tail is the sequence number of the next line.
+    private final byte[][] slots = new byte[RING_LINES][];
+    private final int[] lengths = new int[RING_LINES];
+    private volatile long tail;
+    private volatile byte[] header = new byte[0];
+    private long lineNumber;
+
+    private volatile boolean closing;
+    private final AtomicInteger clientCount = new AtomicInteger();
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    DatalogLiveTail(int port, int everyNthLine) throws IOException
+    {
+        this.everyNthLine = everyNthLine;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+
+        Thread acceptThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                acceptClients();
+            }
+        }, "Datalog live tail");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    // The port clients connect to; useful when 0 was given, to pick any free port.
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getClientCount()
+    {
+        return clientCount.get();
+    }
+
+    // Lines skipped by clients that fell too far behind, over all clients.
+    public long getDroppedLines()
+    {
+        return droppedLines.get();
+    }
+
+    // Called by Datalogger for every line written to the datalog.
+    @Override
+    public void writeLine(Datalogger.Line line)
+    {
+        writeLine(line.getBytes(), 0, line.getLength(), line.isHeader());
+    }
+
+    // The line's UTF-8 bytes, with its end of line.
+    void writeLine(byte[] bytes, int offset, int length, boolean header)
+    {
+        if (header)
+        {
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, offset, copy, 0, length);
+            this.header = copy;
+        }
+        else if (lineNumber++ % everyNthLine != 0)
+        {
+            return;
+        }
+
+        long t = tail;
+        int slot = (int) (t % RING_LINES);
+        if (slots[slot] == null || slots[slot].length < length)
+        {
+            slots[slot] = new byte[length + length / 4 + 16];
+        }
+        System.arraycopy(bytes, offset, slots[slot], 0, length);
+        lengths[slot] = length;
+        tail = t + 1;
+    }
+
+    // Clients send lines from the ring at their own pace.
+    @Override
+    public void flush()
+    {
+    }
+
+    // Stops accepting connections; connected clients are sent the lines already written, then closed.
+    @Override
+    public void close()
+    {
+        closing = true;
+
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private void acceptClients()
+    {
+        while (!closing)
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Thread clientThread = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        sendLines(socket);
+                    }
+                }, "Datalog live tail client");
+                clientThread.setDaemon(true);
+                clientThread.start();
+            }
+            catch (IOException e)
+            {
+                // close() closes the socket to end accept().
+                if (!closing)
+                {
+                    e.printStackTrace();
+                }
+                return;
+            }
+        }
+    }
+
+    private void sendLines(Socket socket)
+    {
+        // Before the client is counted, so every line written once getClientCount() includes it is sent.
+        long cursor = tail;
+        clientCount.incrementAndGet();
+
+        try
+        {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            byte[] line = new byte[256];
+
+            out.write(header);
+
+            while (true)
+            {
+                long t = tail;
+
+                if (cursor == t)
+                {
+                    if (closing)
+                    {
+                        break;
+                    }
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+
+                // A whole ring behind: the next line has been (or is being) overwritten.
+                if (t - cursor >= RING_LINES)
+                {
+                    droppedLines.addAndGet(t - cursor);
+                    cursor = t;
+                    out.write(header);
+                    continue;
+                }
+
+                int slot = (int) (cursor % RING_LINES);
+                byte[] bytes = slots[slot];
+                int length = Math.min(lengths[slot], bytes.length);
+                if (line.length < length)
+                {
+                    line = new byte[length * 2];
+                }
+                System.arraycopy(bytes, 0, line, 0, length);
+
+                // Only send the copy if the writer didn't reach this slot while it was made.
+                if (tail - cursor < RING_LINES)
+                {
+                    out.write(line, 0, length);
+                    cursor++;
+                }
+            }
+
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            // The client disconnected.
+        }
+        finally
+        {
+            clientCount.decrementAndGet();
+
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+This DatalogMemoryRing class keeps the latest lines of a datalog in memory,
+e.g. to show on Driver Station telemetry, or to save just the last seconds
+before a fault to a separate file.
+
+It is a Datalogger.Sink, and an example of writing one. Give it to the
+Datalogger.Builder:
+
+    DatalogMemoryRing recent = new DatalogMemoryRing(50);
+    ...
+        .addSink(recent)
+
+then read it from the OpMode at any time:
+
+    for (String line : recent.getLines()) ...
+
+It doesn't copy lines: it keeps the Datalogger's shared buffer for each one
+with retain(), and releases it when the line is pushed out of the ring, so
+the buffer can be reused. The header line is kept separately and always
+comes first.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+public class DatalogMemoryRing implements Datalogger.Sink
+{
+    private final Datalogger.Line[] lines;
+    private Datalogger.Line header;
+    private long count;
+
+    public DatalogMemoryRing(int maxLines)
+    {
+        if (maxLines < 1) throw new RuntimeException("Memory ring must keep at least 1 line!");
+
+        lines = new Datalogger.Line[maxLines];
+    }
+
+    @Override
+    public synchronized void writeLine(Datalogger.Line line)
+    {
+        if (line.isHeader())
+        {
+            if (header != null)
+            {
+                header.release();
+            }
+            header = line.retain();
+            return;
+        }
+
+        int slot = (int) (count++ % lines.length);
+        if (lines[slot] != null)
+        {
+            lines[slot].release();
+        }
+        lines[slot] = line.retain();
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    // Lets go of the lines; getLines() still works, but returns nothing.
+    @Override
+    public synchronized void close()
+    {
+        if (header != null)
+        {
+            header.release();
+            header = null;
+        }
+        for (int i = 0; i < lines.length; i++)
+        {
+            if (lines[i] != null)
+            {
+                lines[i].release();
+                lines[i] = null;
+            }
+        }
+        count = 0;
+    }
+
+    // The latest header line, then the lines after it, oldest first.
+    public synchronized ArrayList<String> getLines()
+    {
+        ArrayList<String> result = new ArrayList<>();
+        if (header != null)
+        {
+            result.add(header.toString());
+        }
+
+        long first = Math.max(0, count - lines.length);
+        for (long i = first; i < count; i++)
+        {
+            result.add(lines[(int) (i % lines.length)].toString());
+        }
+        return result;
+    }
+
+    // Writes the same lines, as CSV, e.g. to a file.
+    public synchronized void writeTo(OutputStream out) throws IOException
+    {
+        if (header != null)
+        {
+            out.write(header.getBytes(), 0, header.getLength());
+        }
+
+        long first = Math.max(0, count - lines.length);
+        for (long i = first; i < count; i++)
+        {
+            Datalogger.Line line = lines[(int) (i % lines.length)];
+            out.write(line.getBytes(), 0, line.getLength());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+This DatalogMetrics class measures the Datalogger itself, to answer the
+question "is logging what slows down my loop?"
+
+Every Datalogger keeps one; read it with Datalogger.getMetrics(). It counts:
+  - how long each writeLine() call takes (a DatalogHistogram, microseconds)
+  - lines and bytes written to the file
+  - how many times the file buffer was flushed to storage, and how long that took
+  - with async writes: how many lines are waiting in the queue, and how many
+    were dropped because the queue was full
+  - I/O errors
+  - how long closing the datalog took after the OpMode stopped, and whether
+    that was within the Builder's close deadline
+
+Recording never allocates. Counters that the background writer thread
+updates are volatile, so they can be read from the OpMode at any time;
+snapshot() copies all of them at once into a read-only Snapshot.
+For a one-line summary on the Driver Station:
+
+    telemetry.addLine(datalog.getMetrics().toString());
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+public class DatalogMetrics
+{
+    private final DatalogHistogram writeLineMicros = new DatalogHistogram();
+    private final int queueCapacity;
+
+    private volatile long linesWritten;
+    private volatile long bytesWritten;
+    private volatile long flushCount;
+    private volatile long flushNanos;
+    private volatile long maxFlushNanos;
+    private volatile int queueDepth;
+    private volatile int maxQueueDepth;
+    private volatile long droppedLines;
+    private volatile long ioErrors;
+    private volatile long closeNanos;
+    private volatile boolean closeWithinDeadline;
+    private volatile boolean closed;
+
+    DatalogMetrics(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /*
+     * Each record method is called from only one thread (the OpMode thread, or
+     * the async writer thread), so the volatile read-modify-write is safe.
+     */
+
+    void recordWriteLine(long nanos)
+    {
+        writeLineMicros.recordValue(nanos / 1000);
+    }
+
+    void recordLine(int bytes)
+    {
+        linesWritten++;
+        bytesWritten += bytes;
+    }
+
+    void recordFlush(long nanos)
+    {
+        flushCount++;
+        flushNanos += nanos;
+        if (nanos > maxFlushNanos)
+        {
+            maxFlushNanos = nanos;
+        }
+    }
+
+    void recordQueueDepth(int depth)
+    {
+        queueDepth = depth;
+        if (depth > maxQueueDepth)
+        {
+            maxQueueDepth = depth;
+        }
+    }
+
+    // From the writer thread as it drains the queue; only recordQueueDepth() sets the maximum.
+    void updateQueueDepth(int depth)
+    {
+        queueDepth = depth;
+    }
+
+    void recordDroppedLine()
+    {
+        droppedLines++;
+    }
+
+    void recordIoError()
+    {
+        ioErrors++;
+    }
+
+    // Called from the close thread once the datalog is written, synced and closed.
+    void recordClose(long nanos, long deadlineNanos)
+    {
+        closeNanos = nanos;
+        closeWithinDeadline = nanos <= deadlineNanos;
+        closed = true;
+    }
+
+    // Time spent in writeLine(), in microseconds. Read it from the OpMode thread.
+    public DatalogHistogram getWriteLineHistogram()
+    {
+        return writeLineMicros;
+    }
+
+    public long getLinesWritten()
+    {
+        return linesWritten;
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    public long getFlushCount()
+    {
+        return flushCount;
+    }
+
+    public double getFlushTotalMs()
+    {
+        return flushNanos / 1e6;
+    }
+
+    public double getMaxFlushMs()
+    {
+        return maxFlushNanos / 1e6;
+    }
+
+    // Always 0 unless the Builder requested async writes.
+    public int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    public long getDroppedLines()
+    {
+        return droppedLines;
+    }
+
+    public long getIoErrors()
+    {
+        return ioErrors;
+    }
+
+    // False until every line has been written and the file closed.
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public double getCloseMs()
+    {
+        return closeNanos / 1e6;
+    }
+
+    public boolean isClosedWithinDeadline()
+    {
+        return closed && closeWithinDeadline;
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("log %d lines %d KB | writeLine p99 %d us | flush %d x %.1f ms | queue %d/%d | dropped %d | errors %d",
+                linesWritten, bytesWritten / 1024,
+                writeLineMicros.getValueAtPercentile(99),
+                flushCount, getMaxFlushMs(),
+                queueDepth, queueCapacity,
+                droppedLines, ioErrors);
+    }
+
+    /*
+     * The metrics at one moment, copied so they don't change while being read.
+     */
+    public static class Snapshot
+    {
+        public final long linesWritten;
+        public final long bytesWritten;
+        public final long flushCount;
+        public final double flushTotalMs;
+        public final double maxFlushMs;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final int queueCapacity;
+        public final long droppedLines;
+        public final long ioErrors;
+        public final long writeLineP50Micros;
+        public final long writeLineP99Micros;
+        public final long writeLineMaxMicros;
+        public final boolean closed;
+        public final double closeMs;
+        public final boolean closedWithinDeadline;
+
+        private Snapshot(DatalogMetrics metrics)
+        {
+            linesWritten = metrics.linesWritten;
+            bytesWritten = metrics.bytesWritten;
+            flushCount = metrics.flushCount;
+            flushTotalMs = metrics.getFlushTotalMs();
+            maxFlushMs = metrics.getMaxFlushMs();
+            queueDepth = metrics.queueDepth;
+            maxQueueDepth = metrics.maxQueueDepth;
+            queueCapacity = metrics.queueCapacity;
+            droppedLines = metrics.droppedLines;
+            ioErrors = metrics.ioErrors;
+            writeLineP50Micros = metrics.writeLineMicros.getValueAtPercentile(50);
+            writeLineP99Micros = metrics.writeLineMicros.getValueAtPercentile(99);
+            writeLineMaxMicros = metrics.writeLineMicros.getValueAtPercentile(100);
+            closed = metrics.closed;
+            closeMs = metrics.getCloseMs();
+            closedWithinDeadline = metrics.isClosedWithinDeadline();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+This DatalogPreview class keeps a short copy of a datalog, for a quick look
+in the OnBot Java editor. Opening a datalog of 50,000 lines there can freeze
+the browser; the preview has at most a few thousand.
+
+Most users will not need to edit this class. Datalogger writes the preview
+when the OpMode calls setPreviewLines() on the Datalogger.Builder, as
+<filename>_preview.txt next to the datalog. The full datalog is unchanged.
+
+The preview has every header line and every Nth line of data, starting
+with the first. N starts at 1; whenever the preview is full, N doubles,
+every other line is dropped and the preview file is written again (so this
+happens only a few times per datalog). Otherwise lines are appended, and
+the preview is flushed whenever the datalog is, so it is always as current
+as the datalog itself.
+
+The preview is written on the same thread as the datalog: the OpMode thread,
+or the writer thread with Builder.setAsyncWrites(). After the first lines,
+keeping it does not allocate. If the preview can't be written, it stops;
+the datalog carries on.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class DatalogPreview implements Datalogger.Sink
+{
+    static final String SUFFIX = "_preview";
+
+    private static final long HEADER = -1;
+
+    private final String filepath;
+    private final int maxLines;
+    private OutputStream outputStream;
+
+    // The preview's lines, in order: encoded bytes, and the line number of data (HEADER for a header).
+    private byte[][] lines;
+    private int[] lengths;
+    private long[] lineNumbers;
+    private int count;
+    private int dataLines;
+
+    private long lineNumber;
+    private long stride = 1;
+
+    DatalogPreview(String filepath, int maxLines) throws IOException
+    {
+        this.filepath = filepath;
+        this.maxLines = maxLines;
+
+        lines = new byte[maxLines + 1][];
+        lengths = new int[maxLines + 1];
+        lineNumbers = new long[maxLines + 1];
+
+        outputStream = new BufferedOutputStream(new FileOutputStream(filepath, false));
+    }
+
+    // Called by Datalogger for every line written to the datalog.
+    @Override
+    public void writeLine(Datalogger.Line line)
+    {
+        writeLine(line.getBytes(), 0, line.getLength(), line.isHeader());
+    }
+
+    // The line's UTF-8 bytes, with its end of line.
+    void writeLine(byte[] bytes, int offset, int length, boolean header)
+    {
+        if (outputStream == null)
+        {
+            return;
+        }
+
+        long number = HEADER;
+
+        if (!header)
+        {
+            number = lineNumber++;
+            if (number % stride != 0)
+            {
+                return;
+            }
+
+            if (dataLines == maxLines)
+            {
+                compact();
+                if (outputStream == null || number % stride != 0)
+                {
+                    return;
+                }
+            }
+        }
+
+        try
+        {
+            add(bytes, offset, length, number);
+            outputStream.write(lines[count - 1], 0, lengths[count - 1]);
+        }
+        catch (IOException e)
+        {
+            stop(e);
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        if (outputStream == null)
+        {
+            return;
+        }
+
+        try
+        {
+            outputStream.flush();
+        }
+        catch (IOException e)
+        {
+            stop(e);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (outputStream == null)
+        {
+            return;
+        }
+
+        try
+        {
+            outputStream.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        outputStream = null;
+    }
+
+    // Copies the line into the next slot, reusing its array.
+    private void add(byte[] bytes, int offset, int length, long number)
+    {
+        if (count == lines.length)
+        {
+            // Only headers from added columns go past maxLines.
+            lines = Arrays.copyOf(lines, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+        }
+
+        if (lines[count] == null || lines[count].length < length)
+        {
+            lines[count] = new byte[length + length / 4 + 16];
+        }
+        System.arraycopy(bytes, offset, lines[count], 0, length);
+        lengths[count] = length;
+        lineNumbers[count] = number;
+        count++;
+
+        if (number != HEADER)
+        {
+            dataLines++;
+        }
+    }
+
+    /*
+     * Doubles the stride: keeps the headers and every other line of data, then
+     * writes the whole preview file again. The dropped lines' arrays are reused.
+     */
+    private void compact()
+    {
+        stride *= 2;
+        int kept = 0;
+        dataLines = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            if (lineNumbers[i] == HEADER || lineNumbers[i] % stride == 0)
+            {
+                byte[] bytes = lines[kept];
+                lines[kept] = lines[i];
+                lines[i] = bytes;
+                lengths[kept] = lengths[i];
+                lineNumbers[kept] = lineNumbers[i];
+
+                if (lineNumbers[kept] != HEADER)
+                {
+                    dataLines++;
+                }
+                kept++;
+            }
+        }
+        count = kept;
+
+        try
+        {
+            outputStream.close();
+            outputStream = new BufferedOutputStream(new FileOutputStream(filepath, false));
+            for (int i = 0; i < count; i++)
+            {
+                outputStream.write(lines[i], 0, lengths[i]);
+            }
+        }
+        catch (IOException e)
+        {
+            stop(e);
+        }
+    }
+
+    private void stop(IOException e)
+    {
+        e.printStackTrace();
+        close();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+This DatalogProfiler class measures how long each section of an OpMode loop
+takes - hardware reads, telemetry, etc. - and logs each duration as a
+column of the datalog.
+
+Name the sections when creating the profiler, pass it to the
+Datalogger.Builder with setProfiler(), then mark each section in the loop:
+
+    profiler.begin("IMU Read");
+    Orientation orientation = imu.getAngularOrientation();
+    profiler.end();
+
+Each section becomes a column named "<section> ms", holding the total time
+spent in that section since the last writeLine(). A section that did not
+run is left blank. With setSummaryStats(true), the summary file at the end
+of the OpMode includes the mean, percentiles, etc. of every section.
+
+Sections may be nested (up to 16 deep); end() closes the most recent
+begin(). All storage is allocated when the profiler is created, and each
+begin()/end() pair costs two System.nanoTime() calls. In a very tight loop,
+look up a section's number once with section(name) and call begin(int).
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.text.DecimalFormat;
+
+public class DatalogProfiler
+{
+    private static final int MAX_DEPTH = 16;
+
+    private final SectionField[] sections;
+    private final int[] openSections = new int[MAX_DEPTH];
+    private final long[] openNanos = new long[MAX_DEPTH];
+    private int depth;
+
+    public DatalogProfiler(String... sectionNames)
+    {
+        sections = new SectionField[sectionNames.length];
+
+        for (int i = 0; i < sectionNames.length; i++)
+        {
+            sections[i] = new SectionField(sectionNames[i]);
+        }
+    }
+
+    // Returns the number of the named section, for use with begin(int).
+    public int section(String sectionName)
+    {
+        // Literal section names are usually the same String object, so try that first.
+        for (int i = 0; i < sections.length; i++)
+        {
+            if (sections[i].sectionName == sectionName)
+            {
+                return i;
+            }
+        }
+
+        for (int i = 0; i < sections.length; i++)
+        {
+            if (sections[i].sectionName.equals(sectionName))
+            {
+                return i;
+            }
+        }
+
+        throw new RuntimeException("Unknown profiler section: " + sectionName);
+    }
+
+    public void begin(String sectionName)
+    {
+        begin(section(sectionName));
+    }
+
+    public void begin(int section)
+    {
+        if (depth == MAX_DEPTH)
+        {
+            throw new RuntimeException("Profiler sections nested too deeply!");
+        }
+
+        openSections[depth] = section;
+        openNanos[depth] = System.nanoTime();
+        depth++;
+    }
+
+    public void end()
+    {
+        long now = System.nanoTime();
+
+        if (depth == 0)
+        {
+            throw new RuntimeException("Profiler end() without begin()!");
+        }
+
+        depth--;
+        sections[openSections[depth]].add(now - openNanos[depth]);
+    }
+
+    Datalogger.LoggableField[] getFields()
+    {
+        return sections;
+    }
+
+    // Called by Datalogger after each writeLine(), so the next line starts from zero.
+    void endLine()
+    {
+        for (SectionField section : sections)
+        {
+            section.clear();
+        }
+    }
+
+    private static class SectionField extends Datalogger.LoggableField
+    {
+        private final String sectionName;
+        private final DecimalFormat decimalFormat = new DecimalFormat("0.000");
+        private long nanos;
+        private boolean ran;
+
+        public SectionField(String sectionName)
+        {
+            super(sectionName + " ms");
+            this.sectionName = sectionName;
+            setType(Datalogger.ColumnType.NUMBER).setUnits("ms").setPrecision(3)
+                    .setDescription("Time in " + sectionName + " since the last line");
+        }
+
+        public void add(long elapsedNanos)
+        {
+            nanos += elapsedNanos;
+            ran = true;
+        }
+
+        public void clear()
+        {
+            nanos = 0;
+            ran = false;
+        }
+
+        @Override
+        public double getNumericValue()
+        {
+            return ran ? nanos / 1e6 : Double.NaN;
+        }
+
+        @Override
+        public void writeToBuffer(StringBuilder out)
+        {
+            if (ran)
+            {
+                out.append(decimalFormat.format(nanos / 1e6));
+            }
+        }
+
+        @Override
+        protected void warmUp(StringBuilder scratch)
+        {
+            scratch.append(decimalFormat.format(1.234));
+        }
+
+        @Override
+        protected Object capture()
+        {
+            return getNumericValue();
+        }
+
+        @Override
+        protected void writeCaptured(Object captured, StringBuilder out)
+        {
+            double ms = (Double) captured;
+            if (!Double.isNaN(ms))
+            {
+                out.append(decimalFormat.format(ms));
+            }
+        }
+    }
+}
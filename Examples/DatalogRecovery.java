@@ -0,0 +1,294 @@
+/*
+This DatalogRecovery class repairs datalogs that were cut off when the Robot
+Controller app crashed or lost power before the datalog was closed.
+
+Most users will not need to edit this class. While a datalog is open, the
+Datalogger keeps a small index file next to it, <filename>.blocks. Each time
+the file buffer is written to storage, one 16-byte record is appended to the
+index: where the last complete line of that write ends, and a CRC32 of the
+bytes since the previous record. When the datalog is closed normally, the
+index is deleted.
+
+An index that is still there when the next Datalogger is built belongs to a
+datalog that was never closed. Building a Datalogger checks its folder for
+such indexes, and for each one:
+  - finds the last block whose bytes match their CRC, reading only the end
+    of the index and of the datalog, never the whole file
+  - cuts the datalog off after that block, so it ends with a complete line
+  - renames it to <filename>_recovered.txt and deletes the index
+
+Datalogger.getRecoveredDatalogs() lists the files repaired this way.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+public class DatalogRecovery
+{
+    static final String INDEX_EXTENSION = ".blocks";
+
+    private static final int RECORD_SIZE = 16;
+    private static final int RECORD_MAGIC = 0x44617461;
+
+    // Blocks checked from the end of a datalog before the earlier ones are trusted as they are.
+    private static final int MAX_TAIL_BLOCKS = 8;
+
+    private final FileOutputStream indexStream;
+    private final File indexFile;
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[RECORD_SIZE];
+    private long offset;
+
+    // Called by Datalogger when it creates a datalog file.
+    DatalogRecovery(String indexFilepath) throws IOException
+    {
+        indexFile = new File(indexFilepath);
+        indexStream = new FileOutputStream(indexFile, false);
+    }
+
+    /*
+     * Called after each write of the file buffer to storage. The write may end
+     * part way through a line; the block ends at the last complete line, and
+     * the rest is carried into the next block.
+     */
+    void written(byte[] bytes, int length) throws IOException
+    {
+        int lineEnd = length - 1;
+        while (lineEnd >= 0 && bytes[lineEnd] != '\n')
+        {
+            lineEnd--;
+        }
+
+        if (lineEnd < 0)
+        {
+            crc.update(bytes, 0, length);
+            offset += length;
+            return;
+        }
+
+        crc.update(bytes, 0, lineEnd + 1);
+        offset += lineEnd + 1;
+        writeRecord(offset, (int) crc.getValue());
+
+        crc.reset();
+        crc.update(bytes, lineEnd + 1, length - lineEnd - 1);
+        offset += length - lineEnd - 1;
+    }
+
+    private void writeRecord(long end, int blockCrc) throws IOException
+    {
+        putLong(record, 0, end);
+        putInt(record, 8, blockCrc);
+        putInt(record, 12, check(end, blockCrc));
+        indexStream.write(record);
+    }
+
+    /*
+     * Called once the datalog has been closed and synced. With clean false (the
+     * datalog could not be closed properly) the index is kept for recovery.
+     */
+    void close(boolean clean) throws IOException
+    {
+        indexStream.close();
+
+        if (clean)
+        {
+            indexFile.delete();
+        }
+    }
+
+    /*
+     * Repairs every datalog in the folder that has an index left behind, except
+     * the ones in openFilepaths (datalogs this app still has open). Returns the
+     * paths of the recovered files.
+     */
+    static ArrayList<String> recoverDirectory(String directory, String extension, Set<String> openFilepaths)
+    {
+        ArrayList<String> recovered = new ArrayList<>();
+
+        File[] indexFiles = new File(directory).listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(INDEX_EXTENSION);
+            }
+        });
+
+        if (indexFiles == null)
+        {
+            return recovered;
+        }
+
+        for (File indexFile : indexFiles)
+        {
+            String name = indexFile.getName();
+            String base = name.substring(0, name.length() - INDEX_EXTENSION.length());
+            File datalog = new File(directory, base + extension);
+
+            if (openFilepaths.contains(datalog.getPath()))
+            {
+                continue;
+            }
+
+            try
+            {
+                if (datalog.exists())
+                {
+                    recovered.add(recover(datalog, indexFile, new File(directory, base + "_recovered" + extension)));
+                }
+                indexFile.delete();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        return recovered;
+    }
+
+    private static String recover(File datalog, File indexFile, File recoveredFile) throws IOException
+    {
+        long goodEnd = lastGoodBlockEnd(datalog, indexFile);
+
+        RandomAccessFile file = new RandomAccessFile(datalog, "rw");
+        try
+        {
+            if (file.length() > goodEnd)
+            {
+                file.setLength(goodEnd);
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+
+        // Don't overwrite the result of an earlier recovery.
+        for (int n = 2; recoveredFile.exists(); n++)
+        {
+            String path = recoveredFile.getPath();
+            int dot = path.lastIndexOf('.');
+            String stem = path.substring(0, dot).replaceAll("_recovered(_\\d+)?$", "_recovered");
+            recoveredFile = new File(stem + "_" + n + path.substring(dot));
+        }
+
+        if (!datalog.renameTo(recoveredFile))
+        {
+            throw new IOException("Unable to rename " + datalog + " to " + recoveredFile);
+        }
+
+        return recoveredFile.getPath();
+    }
+
+    /*
+     * Checks blocks from the end of the index backwards, and returns the end of
+     * the last one that is entirely in the datalog and matches its CRC. Blocks
+     * older than MAX_TAIL_BLOCKS are not checked.
+     */
+    private static long lastGoodBlockEnd(File datalog, File indexFile) throws IOException
+    {
+        long datalogLength = datalog.length();
+        RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        RandomAccessFile file = new RandomAccessFile(datalog, "r");
+
+        try
+        {
+            long records = index.length() / RECORD_SIZE;
+            long oldest = Math.max(0, records - MAX_TAIL_BLOCKS);
+            byte[] bytes = new byte[0];
+            CRC32 crc = new CRC32();
+
+            for (long r = records - 1; r >= oldest; r--)
+            {
+                long end = readEnd(index, r);
+                long start = r == 0 ? 0 : readEnd(index, r - 1);
+                if (end < 0 || start < 0 || end > datalogLength || start > end)
+                {
+                    continue;
+                }
+
+                int length = (int) (end - start);
+                if (bytes.length < length)
+                {
+                    bytes = new byte[length];
+                }
+                file.seek(start);
+                file.readFully(bytes, 0, length);
+
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() == readCrc(index, r))
+                {
+                    return end;
+                }
+            }
+
+            /*
+             * Every block checked was damaged; keep everything before them. Block
+             * ends are line ends, so cut at the latest older one that is entirely
+             * in the file, never partway through a line.
+             */
+            for (long r = oldest - 1; r >= 0; r--)
+            {
+                long end = readEnd(index, r);
+                if (end >= 0 && end <= datalogLength)
+                {
+                    return end;
+                }
+            }
+            return 0;
+        }
+        finally
+        {
+            file.close();
+            index.close();
+        }
+    }
+
+    // Returns -1 for a record that was only partly written.
+    private static long readEnd(RandomAccessFile index, long r) throws IOException
+    {
+        index.seek(r * RECORD_SIZE);
+        long end = index.readLong();
+        int blockCrc = index.readInt();
+        int check = index.readInt();
+        return check == check(end, blockCrc) ? end : -1;
+    }
+
+    private static int readCrc(RandomAccessFile index, long r) throws IOException
+    {
+        index.seek(r * RECORD_SIZE + 8);
+        return index.readInt();
+    }
+
+    private static int check(long end, int blockCrc)
+    {
+        return (int) (end ^ (end >>> 32)) ^ blockCrc ^ RECORD_MAGIC;
+    }
+
+    private static void putLong(byte[] bytes, int at, long value)
+    {
+        putInt(bytes, at, (int) (value >>> 32));
+        putInt(bytes, at + 4, (int) value);
+    }
+
+    private static void putInt(byte[] bytes, int at, int value)
+    {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
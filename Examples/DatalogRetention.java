@@ -0,0 +1,548 @@
+/*
+This DatalogRetention class keeps the Datalogs folder from growing forever.
+With hundreds of datalogs, the OnBot Java file tree is slow to load and
+the Robot Controller's storage fills up.
+
+Give a policy to the Datalogger.Builder:
+
+    .setRetention(new DatalogRetention()
+            .setMaxFiles(200)
+            .setMaxTotalBytes(100 * 1024 * 1024)
+            .setMaxAgeDays(30)
+            .setCompress(true))
+
+Any limit left unset is not checked. Oldest datalogs (by last modified time)
+go first. A datalog's summary, column metadata and preview files go with it:
+they are compressed and deleted together, and count as one file. A file
+named like one of these (e.g. test_summary.txt) is a datalog of its own
+unless its datalog (test.txt) is also in the folder. With
+setCompress(true), a datalog over the age limit is gzipped to
+<filename>.txt.gz instead of being deleted, and a folder over the byte limit
+has its oldest datalogs gzipped before any are deleted. The file-count limit
+always deletes. Datalogs still open, in this OpMode or still being closed,
+are never touched.
+
+Retention runs on one low-priority background thread, after build() returns;
+it never runs in build() or writeLine(). Each datalog's size and time are
+cached until the folder's list of datalogs changes, so a run with nothing
+to do only lists the folder.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+public class DatalogRetention
+{
+    static final String COMPRESSED_EXTENSION = ".gz";
+
+    // Read the folder again after this long even if it seems unchanged.
+    private static final long MAX_CACHE_AGE_MS = 10 * 60 * 1000;
+
+    // Files Datalogger writes next to <filename>.txt, as <filename><suffix>.txt.
+    private static final String[] SIDECAR_SUFFIXES = {"_summary", "_columns", DatalogPreview.SUFFIX};
+
+    private long maxTotalBytes;
+    private int maxFiles;
+    private double maxAgeDays;
+    private boolean compress;
+
+    public DatalogRetention setMaxTotalBytes(long maxTotalBytes)
+    {
+        this.maxTotalBytes = maxTotalBytes;
+        return this;
+    }
+
+    public DatalogRetention setMaxFiles(int maxFiles)
+    {
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public DatalogRetention setMaxAgeDays(double maxAgeDays)
+    {
+        this.maxAgeDays = maxAgeDays;
+        return this;
+    }
+
+    // Gzip old datalogs instead of deleting them, where the limit allows it.
+    public DatalogRetention setCompress(boolean compress)
+    {
+        this.compress = compress;
+        return this;
+    }
+
+    // Called by Datalogger.Builder.build().
+    void validate()
+    {
+        if (maxTotalBytes < 0) throw new RuntimeException("Retention max total bytes must not be negative!");
+        if (maxFiles < 0) throw new RuntimeException("Retention max files must not be negative!");
+        if (maxAgeDays < 0) throw new RuntimeException("Retention max age must not be negative!");
+    }
+
+    /*
+     * The background task. Requests for the same folder that arrive while it is
+     * busy are merged into one run.
+     */
+
+    private static final HashMap<String, Request> requests = new HashMap<>();
+    private static final HashMap<String, FolderCache> folderCaches = new HashMap<>();
+    private static Thread worker;
+
+    private static class Request
+    {
+        final DatalogRetention policy;
+        final String extension;
+        final Set<String> openFilepaths;
+
+        Request(DatalogRetention policy, String extension, Set<String> openFilepaths)
+        {
+            this.policy = policy;
+            this.extension = extension;
+            this.openFilepaths = openFilepaths;
+        }
+    }
+
+    // Called by Datalogger.Builder.build(); returns at once.
+    static void schedule(String directory, String extension, DatalogRetention policy, Set<String> openFilepaths)
+    {
+        synchronized (requests)
+        {
+            requests.put(new File(directory).getPath(), new Request(policy, extension, openFilepaths));
+
+            if (worker == null)
+            {
+                worker = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runRequests();
+                    }
+                }, "Datalog retention");
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.setDaemon(true);
+                worker.start();
+            }
+            else
+            {
+                requests.notifyAll();
+            }
+        }
+    }
+
+    private static void runRequests()
+    {
+        while (true)
+        {
+            String directory;
+            Request request;
+
+            synchronized (requests)
+            {
+                while (requests.isEmpty())
+                {
+                    try
+                    {
+                        requests.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+
+                directory = requests.keySet().iterator().next();
+                request = requests.remove(directory);
+            }
+
+            try
+            {
+                request.policy.apply(directory, request.extension, request.openFilepaths);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void apply(String directory, String extension, Set<String> openFilepaths) throws IOException
+    {
+        FolderCache cache = folderCaches.get(directory);
+        if (cache == null)
+        {
+            cache = new FolderCache(new File(directory), extension);
+            folderCaches.put(directory, cache);
+        }
+
+        ArrayList<Entry> entries = cache.entries(openFilepaths);
+        int startSize = entries.size();
+        long startBytes = 0;
+        int datalogs = 0;
+        for (Entry entry : entries)
+        {
+            startBytes += entry.bytes;
+            if (entry.datalog)
+            {
+                datalogs++;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long totalBytes = startBytes;
+
+        // Oldest first; entries is sorted that way.
+        if (maxAgeDays > 0)
+        {
+            long oldest = now - (long) (maxAgeDays * 24 * 60 * 60 * 1000);
+
+            for (int i = 0; i < entries.size(); i++)
+            {
+                Entry entry = entries.get(i);
+                if (entry.modified >= oldest)
+                {
+                    break;
+                }
+
+                if (compress && !entry.compressed)
+                {
+                    long oldBytes = entry.bytes;
+                    totalBytes += cache.compress(entry) - oldBytes;
+                }
+                else if (!compress)
+                {
+                    totalBytes -= entry.bytes;
+                    datalogs -= entry.datalog ? 1 : 0;
+                    cache.delete(entry);
+                    i--;
+                }
+            }
+        }
+
+        if (maxTotalBytes > 0 && compress)
+        {
+            for (int i = 0; i < entries.size() && totalBytes > maxTotalBytes; i++)
+            {
+                Entry entry = entries.get(i);
+                if (!entry.compressed)
+                {
+                    long oldBytes = entry.bytes;
+                    totalBytes += cache.compress(entry) - oldBytes;
+                }
+            }
+        }
+
+        while (!entries.isEmpty()
+                && ((maxTotalBytes > 0 && totalBytes > maxTotalBytes) || (maxFiles > 0 && datalogs > maxFiles)))
+        {
+            Entry entry = entries.get(0);
+            totalBytes -= entry.bytes;
+            datalogs -= entry.datalog ? 1 : 0;
+            cache.delete(entry);
+        }
+
+        // Read the folder again next time, in case a new datalog appeared while this ran.
+        if (entries.size() != startSize || totalBytes != startBytes)
+        {
+            cache.invalidate();
+        }
+    }
+
+    /*
+     * One datalog and the files Datalogger writes next to it (summary, column
+     * metadata, preview), which are counted, compressed and deleted with it.
+     * Sidecar files whose datalog is gone form an entry of their own, which
+     * counts toward the byte and age limits but not the file count.
+     */
+    private static class Entry
+    {
+        final ArrayList<File> files = new ArrayList<>();
+        boolean datalog;
+        long bytes;
+        long modified;
+        boolean compressed;
+
+        void add(File file, boolean isDatalog)
+        {
+            if (isDatalog)
+            {
+                // The datalog goes first; its time and compression stand for the entry.
+                files.add(0, file);
+                datalog = true;
+                modified = file.lastModified();
+                compressed = file.getName().endsWith(COMPRESSED_EXTENSION);
+            }
+            else
+            {
+                files.add(file);
+                if (!datalog)
+                {
+                    modified = Math.max(modified, file.lastModified());
+                    compressed = file.getName().endsWith(COMPRESSED_EXTENSION);
+                }
+            }
+            bytes += file.length();
+        }
+    }
+
+    /*
+     * The datalogs in one folder, oldest first. The entries are kept until the
+     * folder's list of datalog files changes, or which of them are open does,
+     * so a run with nothing to do reads only the folder's listing, not every
+     * file's size and time. Datalogs still open are left out.
+     */
+    private static class FolderCache
+    {
+        private final File directory;
+        private final String extension;
+        private final ArrayList<Entry> entries = new ArrayList<>();
+        private String[] names;
+        private HashSet<String> openNames = new HashSet<>();
+        private long readTime;
+
+        FolderCache(File directory, String extension)
+        {
+            this.directory = directory;
+            this.extension = extension;
+        }
+
+        // Returns the entries, excluding any datalog with a file in openFilepaths.
+        ArrayList<Entry> entries(Set<String> openFilepaths)
+        {
+            String[] current = directory.list(new FilenameFilter()
+            {
+                @Override
+                public boolean accept(File dir, String name)
+                {
+                    return name.endsWith(extension) || name.endsWith(extension + COMPRESSED_EXTENSION);
+                }
+            });
+            if (current == null)
+            {
+                current = new String[0];
+            }
+            Arrays.sort(current);
+
+            HashSet<String> open = new HashSet<>();
+            for (String name : current)
+            {
+                if (openFilepaths.contains(new File(directory, name).getPath()))
+                {
+                    open.add(name);
+                }
+            }
+
+            if (!Arrays.equals(current, names) || !open.equals(openNames)
+                    || System.currentTimeMillis() - readTime > MAX_CACHE_AGE_MS)
+            {
+                read(current, open);
+            }
+            return entries;
+        }
+
+        private void read(String[] current, HashSet<String> open)
+        {
+            entries.clear();
+
+            HashSet<String> stems = new HashSet<>();
+            for (String name : current)
+            {
+                stems.add(stem(name));
+            }
+
+            // Datalogs first, by name without extensions, then their sidecar files.
+            HashMap<String, Entry> byStem = new HashMap<>();
+            ArrayList<String> sidecars = new ArrayList<>();
+            for (String name : current)
+            {
+                if (isSidecar(stem(name), stems))
+                {
+                    sidecars.add(name);
+                    continue;
+                }
+                Entry entry = byStem.get(stem(name));
+                if (entry == null)
+                {
+                    entry = new Entry();
+                    byStem.put(stem(name), entry);
+                }
+                entry.add(new File(directory, name), true);
+            }
+
+            for (String name : sidecars)
+            {
+                String base = sidecarBase(stem(name));
+                Entry entry = byStem.get(base);
+                if (entry == null)
+                {
+                    // After a crash, the datalog was renamed by DatalogRecovery.
+                    entry = byStem.get(base + "_recovered");
+                }
+                if (entry == null)
+                {
+                    // The base is itself a sidecar, e.g. <filename>_summary_columns.
+                    entry = new Entry();
+                    byStem.put(base, entry);
+                }
+                entry.add(new File(directory, name), false);
+            }
+
+            for (Entry entry : byStem.values())
+            {
+                boolean isOpen = false;
+                for (File file : entry.files)
+                {
+                    isOpen |= open.contains(file.getName());
+                }
+                if (!isOpen)
+                {
+                    entries.add(entry);
+                }
+            }
+
+            sort();
+            names = current;
+            openNames = open;
+            readTime = System.currentTimeMillis();
+        }
+
+        // The file name without .gz and the datalog extension.
+        private String stem(String name)
+        {
+            if (name.endsWith(COMPRESSED_EXTENSION))
+            {
+                name = name.substring(0, name.length() - COMPRESSED_EXTENSION.length());
+            }
+            return name.substring(0, name.length() - extension.length());
+        }
+
+        /*
+         * True for a file Datalogger wrote next to a datalog that is in the
+         * folder. A datalog the user happened to name e.g. test_summary is
+         * only a sidecar if there is also a datalog called test.
+         */
+        private static boolean isSidecar(String stem, Set<String> stems)
+        {
+            String base = sidecarBase(stem);
+            return base != null && (stems.contains(base) || stems.contains(base + "_recovered"));
+        }
+
+        // For a sidecar file's stem, the datalog's stem; null if it has no sidecar suffix.
+        private static String sidecarBase(String stem)
+        {
+            for (String suffix : SIDECAR_SUFFIXES)
+            {
+                if (stem.endsWith(suffix) && stem.length() > suffix.length())
+                {
+                    return stem.substring(0, stem.length() - suffix.length());
+                }
+            }
+            return null;
+        }
+
+        private void sort()
+        {
+            Collections.sort(entries, new Comparator<Entry>()
+            {
+                @Override
+                public int compare(Entry a, Entry b)
+                {
+                    return Long.compare(a.modified, b.modified);
+                }
+            });
+        }
+
+        // Gzips each of the entry's files in place of the original; returns the entry's new size.
+        long compress(Entry entry) throws IOException
+        {
+            long bytes = 0;
+
+            for (int i = 0; i < entry.files.size(); i++)
+            {
+                File file = entry.files.get(i);
+                if (!file.getName().endsWith(COMPRESSED_EXTENSION))
+                {
+                    file = compress(file);
+                    entry.files.set(i, file);
+                }
+                bytes += file.length();
+            }
+
+            entry.bytes = bytes;
+            entry.compressed = true;
+            return bytes;
+        }
+
+        private static File compress(File file) throws IOException
+        {
+            File compressed = new File(file.getPath() + COMPRESSED_EXTENSION);
+            InputStream in = new FileInputStream(file);
+            boolean done = false;
+
+            try
+            {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+                try
+                {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) > 0)
+                    {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+                done = true;
+            }
+            finally
+            {
+                in.close();
+
+                // Never leave half a .gz file next to the original.
+                if (!done)
+                {
+                    compressed.delete();
+                }
+            }
+
+            // Keep the file's own time, so it still sorts as old.
+            compressed.setLastModified(file.lastModified());
+            file.delete();
+            return compressed;
+        }
+
+        void delete(Entry entry)
+        {
+            for (File file : entry.files)
+            {
+                file.delete();
+            }
+            entries.remove(entry);
+        }
+
+        void invalidate()
+        {
+            names = null;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+This DatalogSchema class names the columns of a datalog once, up front, so
+that each value goes into the right column no matter in which order the
+OpMode sets them.
+
+Declare the columns when the OpMode initializes. Column order is the order
+of addField() calls, and is fixed when build() is called:
+
+    DatalogSchema schema = new DatalogSchema.Builder()
+            .addField("Yaw")
+            .addField("Pitch")
+            .addField("Battery")
+            .build();
+
+    int yaw = schema.handle("Yaw");     // look up each handle once
+
+Each column has an integer handle, its position in the row. In the loop,
+setting a value by handle is a plain array access:
+
+    datalog.set(yaw, orientation.firstAngle);
+
+Setting by name also works, and costs one short hash of the name and one
+equals(): build() finds a two-level perfect hash for the names, so there is
+never a chain or probe. The hash picks a small bucket of names, and each
+bucket has its own seed that gives every name in it a slot of its own. The
+table stays about twice the number of fields, even for thousands of them.
+
+W_Datalogger_v05 accepts a schema in its constructor; see that file.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+public class DatalogSchema
+{
+    private static final int MAX_SEEDS = 64;
+    private static final int MAX_BUCKET_SEEDS = 1 << 16;
+
+    private final String[] names;
+    private final String[] slotNames;
+    private final int[] slotHandles;
+    private final int[] bucketSeeds;
+    private final int seed;
+    private final int mask;
+    private final int bucketMask;
+
+    private DatalogSchema(String[] names, String[] slotNames, int[] slotHandles, int[] bucketSeeds, int seed)
+    {
+        this.names = names;
+        this.slotNames = slotNames;
+        this.slotHandles = slotHandles;
+        this.bucketSeeds = bucketSeeds;
+        this.seed = seed;
+        this.mask = slotNames.length - 1;
+        this.bucketMask = bucketSeeds.length - 1;
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    // Column name for a handle; handles run from 0 to size()-1 in column order.
+    public String name(int handle)
+    {
+        return names[handle];
+    }
+
+    // Returns the handle of the named column.
+    public int handle(String name)
+    {
+        int handle = find(name);
+        if (handle < 0)
+        {
+            throw new RuntimeException("Unknown schema field: " + name);
+        }
+        return handle;
+    }
+
+    // Returns true if the schema has a column with this name.
+    public boolean contains(String name)
+    {
+        return find(name) >= 0;
+    }
+
+    private int find(String name)
+    {
+        int hash = hash(name, seed);
+        int slot = slot(hash, bucketSeeds[mix(hash) & bucketMask], mask);
+        String slotName = slotNames[slot];
+        return slotName != null && (slotName == name || slotName.equals(name)) ? slotHandles[slot] : -1;
+    }
+
+    // Seeded FNV-1a. Unlike String.hashCode(), a new seed also separates names such as "Aa" and "BB".
+    private static int hash(String name, int seed)
+    {
+        int h = 0x811C9DC5 ^ seed;
+        for (int i = 0; i < name.length(); i++)
+        {
+            h = (h ^ name.charAt(i)) * 0x01000193;
+        }
+        return h;
+    }
+
+    // Murmur3 finalizer, so every bit of the hash and bucket seed reaches the low bits used as an index.
+    private static int mix(int h)
+    {
+        h = (h ^ (h >>> 16)) * 0x85EBCA6B;
+        h = (h ^ (h >>> 13)) * 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int slot(int hash, int bucketSeed, int mask)
+    {
+        return mix(hash + bucketSeed * 0x9E3779B9) & mask;
+    }
+
+    public static class Builder
+    {
+        private ArrayList<String> names = new ArrayList<>();
+
+        public Builder addField(String name)
+        {
+            this.names.add(name);
+            return this;
+        }
+
+        public Builder addFields(String... names)
+        {
+            for (String name : names)
+            {
+                addField(name);
+            }
+            return this;
+        }
+
+        public DatalogSchema build()
+        {
+            if (names.isEmpty()) throw new RuntimeException("Schema must have at least one field!");
+
+            HashSet<String> seen = new HashSet<>();
+            for (String name : names)
+            {
+                if (name == null) throw new RuntimeException("Schema field names must not be null!");
+                if (!seen.add(name)) throw new RuntimeException("Duplicate schema field: " + name + "!");
+            }
+
+            /*
+             * Hash and displace: the first seed splits the names into buckets of
+             * about two names each. Then, largest bucket first, try seeds for
+             * each bucket until all of its names land in free slots. The table
+             * has at least twice as many slots as fields, so every bucket finds
+             * its seed quickly, however many fields there are. If some bucket
+             * doesn't, start over with the next first seed.
+             */
+            int size = names.size();
+            int tableSize = Integer.highestOneBit(size * 2 - 1) << 1;
+            int bucketCount = Math.max(1, tableSize >> 2);
+            int mask = tableSize - 1;
+            int bucketMask = bucketCount - 1;
+
+            String[] slotNames = new String[tableSize];
+            int[] slotHandles = new int[tableSize];
+            int[] bucketSeeds = new int[bucketCount];
+            int[] hashes = new int[size];
+            int[] bucketOf = new int[size];
+            int[] bucketSizes = new int[bucketCount];
+            int[] placed = new int[size];
+
+            for (int seed = 0; seed < MAX_SEEDS; seed++)
+            {
+                Arrays.fill(slotNames, null);
+                Arrays.fill(bucketSeeds, 0);
+                Arrays.fill(bucketSizes, 0);
+
+                for (int handle = 0; handle < size; handle++)
+                {
+                    hashes[handle] = hash(names.get(handle), seed);
+                    bucketOf[handle] = mix(hashes[handle]) & bucketMask;
+                    bucketSizes[bucketOf[handle]]++;
+                }
+
+                // Handles grouped by bucket, largest bucket first.
+                Integer[] order = new Integer[size];
+                for (int handle = 0; handle < size; handle++)
+                {
+                    order[handle] = handle;
+                }
+                final int[] sizes = bucketSizes;
+                final int[] buckets = bucketOf;
+                Arrays.sort(order, new Comparator<Integer>()
+                {
+                    @Override
+                    public int compare(Integer a, Integer b)
+                    {
+                        int bySize = Integer.compare(sizes[buckets[b]], sizes[buckets[a]]);
+                        return bySize != 0 ? bySize : Integer.compare(buckets[a], buckets[b]);
+                    }
+                });
+
+                boolean perfect = true;
+
+                for (int start = 0; start < size && perfect; start += bucketSizes[bucketOf[order[start]]])
+                {
+                    int bucket = bucketOf[order[start]];
+                    int end = start + bucketSizes[bucket];
+                    perfect = false;
+
+                    for (int bucketSeed = 1; bucketSeed < MAX_BUCKET_SEEDS && !perfect; bucketSeed++)
+                    {
+                        int count = 0;
+                        for (int i = start; i < end; i++)
+                        {
+                            int slot = slot(hashes[order[i]], bucketSeed, mask);
+                            if (slotNames[slot] != null)
+                            {
+                                break;
+                            }
+                            slotNames[slot] = names.get(order[i]);
+                            slotHandles[slot] = order[i];
+                            placed[count++] = slot;
+                        }
+
+                        if (count == end - start)
+                        {
+                            bucketSeeds[bucket] = bucketSeed;
+                            perfect = true;
+                        }
+                        else
+                        {
+                            for (int i = 0; i < count; i++)
+                            {
+                                slotNames[placed[i]] = null;
+                            }
+                        }
+                    }
+                }
+
+                if (perfect)
+                {
+                    return new DatalogSchema(names.toArray(new String[0]), slotNames, slotHandles, bucketSeeds, seed);
+                }
+            }
+
+            throw new RuntimeException("Unable to build schema lookup table!");
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+This DatalogStats class keeps streaming summary statistics for the numeric
+fields of a Datalogger: count, mean, standard deviation, min, max and
+percentiles. The statistics are updated as each line is logged, so the
+summary is ready when the OpMode ends - no need to open and reparse a
+large CSV file just to find the average loop time or battery voltage.
+
+Most users will not need to edit this class. Datalogger creates and updates
+it when the OpMode calls setSummaryStats(true) on the Datalogger.Builder.
+The summary is written next to the datalog as <filename>_summary.txt when
+the datalog is closed, and is available in memory from
+Datalogger.getSummaryStats(). The summary also has a "Loop ms" row, taken
+from the Datalogger's loop-time histogram (see DatalogHistogram.java).
+
+Percentiles come from a QuantileSketch: a fixed-size, log-spaced histogram
+accurate to about 1% of the reported value. Sketches (and FieldStats) can be
+merged, so statistics from several datalogs can be combined later.
+
+*/
+
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class DatalogStats
+{
+    private FieldStats[] fieldStats;
+
+    public DatalogStats(Datalogger.LoggableField[] fields)
+    {
+        fieldStats = new FieldStats[fields.length];
+
+        for (int i = 0; i < fields.length; i++)
+        {
+            fieldStats[i] = new FieldStats(fields[i].name);
+        }
+    }
+
+    // Called by Datalogger when columns are added while logging; existing statistics are kept.
+    void addFields(Datalogger.LoggableField[] fields)
+    {
+        FieldStats[] tmp = Arrays.copyOf(fieldStats, fields.length);
+
+        for (int i = fieldStats.length; i < fields.length; i++)
+        {
+            tmp[i] = new FieldStats(fields[i].name);
+        }
+        fieldStats = tmp;
+    }
+
+    /*
+     * Called by Datalogger for every line it writes. Fields that do not
+     * currently hold a number (for example an OpMode status string) are skipped.
+     */
+    void update(Datalogger.LoggableField[] fields)
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            fieldStats[i].add(fields[i].getNumericValue());
+        }
+    }
+
+    // Same as above, for values captured earlier (see Datalogger's pre-trigger ring).
+    void update(double[] numericValues)
+    {
+        for (int i = 0; i < numericValues.length; i++)
+        {
+            fieldStats[i].add(numericValues[i]);
+        }
+    }
+
+    public FieldStats[] getFieldStats()
+    {
+        return fieldStats;
+    }
+
+    // Returns the statistics for the named field, or null if there is no such field.
+    public FieldStats getFieldStats(String name)
+    {
+        for (FieldStats stats : fieldStats)
+        {
+            if (stats.name.equals(name))
+            {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Writes one CSV row for the loop period, then one row per numeric field.
+     * Fields that never held a number are left out of the summary.
+     */
+    public void writeSummary(String filepath, DatalogHistogram loopTime) throws IOException
+    {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(filepath, false));
+
+        try
+        {
+            writer.write("Field,Count,Mean,StdDev,Min,Max,P50,P95,P99,P99.9");
+            writer.newLine();
+
+            if (loopTime != null && loopTime.getCount() > 0)
+            {
+                writer.write(csvRow("Loop ms", loopTime.getCount(),
+                        loopTime.getMeanMs(), loopTime.getStdDevMs(), loopTime.getMinMs(), loopTime.getMaxMs(),
+                        loopTime.getPercentileMs(50), loopTime.getPercentileMs(95),
+                        loopTime.getPercentileMs(99), loopTime.getPercentileMs(99.9)));
+                writer.newLine();
+            }
+
+            for (FieldStats stats : fieldStats)
+            {
+                if (stats.getCount() == 0)
+                {
+                    continue;
+                }
+
+                writer.write(stats.toCsvRow());
+                writer.newLine();
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    static String csvRow(String name, long count, double mean, double stdDev, double min, double max,
+                         double p50, double p95, double p99, double p999)
+    {
+        return String.format("%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                name, count, mean, stdDev, min, max, p50, p95, p99, p999);
+    }
+
+    /*
+     * Welford's streaming mean and variance, plus min, max and a quantile sketch,
+     * for a single column. Adding a value does not allocate.
+     */
+    public static class FieldStats
+    {
+        public final String name;
+
+        private long count;
+        private double mean;
+        private double m2;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        public FieldStats(String name)
+        {
+            this.name = name;
+        }
+
+        public void add(double val)
+        {
+            if (Double.isNaN(val))
+            {
+                return;
+            }
+
+            count++;
+            double delta = val - mean;
+            mean += delta / count;
+            m2 += delta * (val - mean);
+
+            if (val < min) min = val;
+            if (val > max) max = val;
+
+            sketch.add(val);
+        }
+
+        // Combines another column's statistics into this one (Chan et al. parallel update).
+        public void merge(FieldStats other)
+        {
+            if (other.count == 0)
+            {
+                return;
+            }
+
+            if (count == 0)
+            {
+                count = other.count;
+                mean = other.mean;
+                m2 = other.m2;
+            }
+            else
+            {
+                long total = count + other.count;
+                double delta = other.mean - mean;
+                mean += delta * other.count / total;
+                m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+                count = total;
+            }
+
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sketch.merge(other.sketch);
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getMean()
+        {
+            return count > 0 ? mean : Double.NaN;
+        }
+
+        // Sample variance, the same as the spreadsheet VAR() function.
+        public double getVariance()
+        {
+            return count > 1 ? m2 / (count - 1) : Double.NaN;
+        }
+
+        public double getStdDev()
+        {
+            return Math.sqrt(getVariance());
+        }
+
+        public double getMin()
+        {
+            return count > 0 ? min : Double.NaN;
+        }
+
+        public double getMax()
+        {
+            return count > 0 ? max : Double.NaN;
+        }
+
+        // Estimated value at quantile q (0.0 to 1.0), within the range actually seen.
+        public double getQuantile(double q)
+        {
+            if (count == 0)
+            {
+                return Double.NaN;
+            }
+            return Math.min(max, Math.max(min, sketch.getQuantile(q)));
+        }
+
+        public QuantileSketch getSketch()
+        {
+            return sketch;
+        }
+
+        String toCsvRow()
+        {
+            return csvRow(name, count, getMean(), getStdDev(), getMin(), getMax(),
+                    getQuantile(0.50), getQuantile(0.95), getQuantile(0.99), getQuantile(0.999));
+        }
+
+        // Allows user OpMode telemetry to display a short summary of the field.
+        @Override
+        public String toString()
+        {
+            return String.format("mean %.3f sd %.3f min %.3f max %.3f p95 %.3f",
+                    getMean(), getStdDev(), getMin(), getMax(), getQuantile(0.95));
+        }
+    }
+
+    /*
+     * A mergeable quantile sketch with fixed memory. Values are counted in
+     * logarithmically spaced buckets, each about 2% wide, so any reported
+     * quantile is within about 1% of a value that was actually logged.
+     * Magnitudes below MIN_MAGNITUDE count as zero; magnitudes above
+     * MAX_MAGNITUDE land in the top bucket.
+     */
+    public static class QuantileSketch
+    {
+        private static final double RELATIVE_ACCURACY = 0.01;
+        private static final double MIN_MAGNITUDE = 1e-3;
+        private static final double MAX_MAGNITUDE = 1e7;
+
+        private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+        private static final double LOG_GAMMA = Math.log(GAMMA);
+        private static final int INDEX_OFFSET = (int) Math.floor(Math.log(MIN_MAGNITUDE) / LOG_GAMMA);
+        private static final int NUM_BUCKETS = (int) Math.ceil(Math.log(MAX_MAGNITUDE) / LOG_GAMMA) - INDEX_OFFSET + 1;
+
+        private final int[] positive = new int[NUM_BUCKETS];
+        private final int[] negative = new int[NUM_BUCKETS];
+        private long zeroCount;
+        private long count;
+
+        public void add(double val)
+        {
+            if (Double.isNaN(val))
+            {
+                return;
+            }
+
+            double magnitude = Math.abs(val);
+
+            if (magnitude < MIN_MAGNITUDE)
+            {
+                zeroCount++;
+            }
+            else if (val > 0)
+            {
+                positive[bucketIndex(magnitude)]++;
+            }
+            else
+            {
+                negative[bucketIndex(magnitude)]++;
+            }
+
+            count++;
+        }
+
+        public void merge(QuantileSketch other)
+        {
+            for (int i = 0; i < NUM_BUCKETS; i++)
+            {
+                positive[i] += other.positive[i];
+                negative[i] += other.negative[i];
+            }
+            zeroCount += other.zeroCount;
+            count += other.count;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getQuantile(double q)
+        {
+            if (count == 0)
+            {
+                return Double.NaN;
+            }
+
+            long rank = (long) (Math.max(0, Math.min(1, q)) * (count - 1));
+            long seen = 0;
+
+            // Most negative values first: the largest magnitudes of the negative side.
+            for (int i = NUM_BUCKETS - 1; i >= 0; i--)
+            {
+                seen += negative[i];
+                if (seen > rank) return -bucketValue(i);
+            }
+
+            seen += zeroCount;
+            if (seen > rank) return 0;
+
+            for (int i = 0; i < NUM_BUCKETS; i++)
+            {
+                seen += positive[i];
+                if (seen > rank) return bucketValue(i);
+            }
+
+            return bucketValue(NUM_BUCKETS - 1);
+        }
+
+        private static int bucketIndex(double magnitude)
+        {
+            int index = (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA) - INDEX_OFFSET;
+            return Math.max(0, Math.min(NUM_BUCKETS - 1, index));
+        }
+
+        private static double bucketValue(int index)
+        {
+            return 2 * Math.pow(GAMMA, index + INDEX_OFFSET) / (GAMMA + 1);
+        }
+    }
+}
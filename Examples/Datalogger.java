@@ -10,12 +10,104 @@ For instructions, see the tutorial at the FTC Wiki:
 https://github.com/FIRST-Tech-Challenge/FtcRobotController/wiki/Datalogging
 
 
-Android Studio programmers can change the destination filepath at Line 295,
-From: "/sdcard/FIRST/java/src/Datalogs/%s.txt"
-To:   "/sdcard/FIRST/Datalogs/%s.csv"
+Android Studio programmers can change the destination folder and extension
+in the DATALOG_DIRECTORY and DATALOG_EXTENSION constants near the top of the
+class (the folder can also be set with setDirectory() on the Builder),
+From: "/sdcard/FIRST/java/src/Datalogs" and ".txt"
+To:   "/sdcard/FIRST/Datalogs" and ".csv"
 This change presumes OnBot Java will not be used to preview or download datalogs;
 they will instead be manually transferred from the RC device.
 
+Optional summary statistics (mean, standard deviation, min, max, percentiles)
+of every numeric field can be kept while logging; see DatalogStats.java.
+The loop period (time between writeLine() calls) is always tracked. Its
+percentiles are written to <filename>_summary.txt on close with the summary
+statistics, or on their own with Builder.setLoopTimeSummary(true); see
+DatalogHistogram.java.
+
+To log only the few seconds around an event, give the Builder a start
+trigger (and optionally a stop trigger, timeout and number of pre-trigger
+lines). Until the start trigger fires, writeLine() only keeps the last few
+lines in memory, unformatted; nothing is written to the file.
+
+Values computed only for the log (a yaw rate, an integral, a moving average)
+can be declared with Builder.addDerivedField() instead of being computed in
+the OpMode loop. Derived fields are evaluated only for lines that are
+actually written, with constant work per line.
+
+To see where loop time goes, pass a DatalogProfiler to the Builder; each
+profiled section of the loop becomes a column. See DatalogProfiler.java.
+
+The Datalogger measures itself: writeLine() time, bytes and lines written,
+flushes, queue depth and I/O errors. See DatalogMetrics.java. If logging
+is slowing the loop, Builder.setAsyncWrites() moves file writes to a
+background thread.
+
+The first lines after START are slower than later ones while classes load
+and the formatting code is compiled. Call prepare() during INIT to do that
+work early, so the first real line costs the same as the thousandth.
+
+When the OpMode stops, the datalog is drained, flushed and synced to storage
+on a background thread, so the next OpMode can INIT straight away. The close
+keeps going until every line is written, however long that takes;
+Builder.setCloseDeadline() only sets how long it is expected to take, and
+getMetrics() reports whether it finished in time. A new Datalogger for the
+same file waits for the old one to finish closing.
+
+If the app crashes or loses power before a datalog is closed, the next
+Datalogger built in the same folder cuts that datalog off after its last
+complete, CRC-checked block of lines and renames it <filename>_recovered.txt.
+See DatalogRecovery.java.
+
+To keep the Datalogs folder from filling up, give the Builder a
+DatalogRetention policy (maximum files, total size or age). Old datalogs are
+deleted or gzipped on a low-priority background thread.
+
+A column can be added while the OpMode runs, e.g. a debug value once an
+autonomous path starts, with addField(). Logging doesn't pause: the new
+column is appended after the existing ones, and a new header line listing
+all the columns is written before the next line. To read such a datalog as
+one table, treat any line whose first cell is the first column's name as a
+header, use the last header for the column names, and leave the missing
+(newer) columns of earlier lines blank.
+
+Instead of a GenericField per column, plain fields of any object can be
+logged by annotating them, e.g. @Datalogger.Log("Yaw") double yaw; and
+passing the object to Builder.addFieldsFrom(). The object implements
+Datalogger.LogSource, giving a lambda that reads each annotated field once,
+e.g. () -> yaw; each writeLine() then reads the fields through these, not
+by reflection. See ConceptDataloggerAnnotated.java.
+
+Each column can describe itself: a type, units, number of decimal places
+and a description (setType(), setUnits(), setPrecision(), setDescription()
+on any field). With Builder.setColumnMetadata(true), these are written to
+<filename>_columns.txt, one CSV row per column in datalog order:
+
+    Column,Type,Units,Precision,Description
+    Timestamp,NUMBER,s,3,Seconds since the datalog was created
+    Yaw,NUMBER,deg,3,IMU heading
+
+so an analysis script can read the datalog without guessing column types.
+Unknown values are left blank. The file is written when the datalog is
+created, and again when it is closed if columns were added.
+
+A long datalog is slow to open in the OnBot Java editor. With
+Builder.setPreviewLines(), a short copy of at most that many lines (every
+Nth line of data, plus the headers) is kept up to date as
+<filename>_preview.txt, for a quick look at the field. See
+DatalogPreview.java.
+
+To watch values live, e.g. charted on a laptop, Builder.setLiveTail(port)
+streams each line (or every Nth line) as it is written to any program
+connected to that TCP port. Slow connections skip lines rather than slow
+the OpMode. See DatalogLiveTail.java.
+
+The file, preview and live tail are sinks: each line is formatted and
+encoded once, into a shared buffer that every sink reads. To send lines
+somewhere else as well, implement Datalogger.Sink and give it to
+Builder.addSink(); DatalogMemoryRing.java, which keeps the latest lines in
+memory, is an example.
+
 Credit to @Windwoes (https://github.com/Windwoes).
 
 */
@@ -31,14 +123,74 @@ import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class Datalogger
 {
+    private static final String DATALOG_DIRECTORY = "/sdcard/FIRST/java/src/Datalogs";
+    private static final String DATALOG_EXTENSION = ".txt";
+    private static final int DEFAULT_WARMUP_LINES = 2000;
+    private static final int DEFAULT_CLOSE_DEADLINE_MS = 2000;
+
+    // Datalogs still being closed in the background, by file path.
+    private static final HashMap<String, Thread> pendingCloses = new HashMap<>();
+
+    // Datalogs this app has open (or is still closing), which recovery must leave alone.
+    private static final HashSet<String> openFilepaths = new HashSet<>();
+
     private LoggableField[] fields;
-    private BufferedCsvWriter bufferedCsvWriter;
+    private volatile LoggableField[] latestFields;
+    private final Object addFieldLock = new Object();
+    private LineFanOut lineFanOut;
+    private LineSerializer lineSerializer;
+    private DatalogStats summaryStats;
+    private String summaryFilepath;
+    private String columnsFilepath;
+    private boolean columnsChanged;
+    private final DatalogHistogram loopTimeHistogram = new DatalogHistogram();
+    private long lastLineNanos;
+    private volatile boolean restartLoopTime;
+
+    private Condition startTrigger;
+    private Condition stopTrigger;
+    private long triggerTimeoutNanos;
+    private PreTriggerRing preTriggerRing;
+    private DerivedField[] derivedFields;
+    private int firstDerivedField;
+    private final Row capturedRow = new Row();
+    private DatalogProfiler profiler;
+    private final StringBuilder lineBuffer = new StringBuilder(256);
+    private DatalogMetrics metrics;
+    private AsyncWriter asyncWriter;
+    private boolean triggered;
+    private boolean triggerArmed = true;
+    private long triggerStartNanos;
+    private String filepath;
+    private String previewFilepath;
+    private DatalogLiveTail liveTail;
+    private long closeDeadlineNanos;
+    private volatile boolean closing;
+    private Thread closeThread;
+    private String[] recoveredDatalogs;
 
     /*
      * NOTE: We cannot simply pass `new OpModeNotifications()` inline to the call
@@ -48,14 +200,60 @@ public class Datalogger
      */
     private OpModeNotifications opModeNotifications = new OpModeNotifications();
 
-    private Datalogger(BufferedCsvWriter bufferedCsvWriter, LoggableField[] fields)
+    private Datalogger(Builder builder, LineFanOut lineFanOut, DatalogMetrics metrics)
     {
-        this.bufferedCsvWriter = bufferedCsvWriter;
-        this.fields = fields;
+        this.lineFanOut = lineFanOut;
+        this.metrics = metrics;
+        this.fields = builder.fields;
+        this.latestFields = fields;
+        numberColumns(fields);
+        this.lineSerializer = new LineSerializer(fields);
+        this.derivedFields = builder.derivedFields.toArray(new DerivedField[0]);
+        this.firstDerivedField = fields.length - derivedFields.length;
+        this.profiler = builder.profiler;
+        this.closeDeadlineNanos = builder.closeDeadlineMs * 1000000L;
+        this.recoveredDatalogs = builder.recoveredDatalogs.toArray(new String[0]);
+        this.liveTail = builder.liveTail;
+        if (builder.outputStream == null)
+        {
+            filepath = builder.filepath("");
+        }
+        if (builder.previewLines > 0 && filepath != null)
+        {
+            previewFilepath = builder.filepath(DatalogPreview.SUFFIX);
+        }
+
+        if (builder.summaryStats)
+        {
+            summaryStats = new DatalogStats(fields);
+        }
+        if (builder.summaryStats || builder.loopTimeSummary)
+        {
+            summaryFilepath = builder.filepath("_summary");
+        }
+
+        if (builder.columnMetadata && filepath != null)
+        {
+            columnsFilepath = builder.filepath("_columns");
+            writeColumnMetadata();
+        }
+
+        if (builder.startTrigger != null)
+        {
+            startTrigger = builder.startTrigger;
+            stopTrigger = builder.stopTrigger;
+            triggerTimeoutNanos = builder.triggerTimeoutMs * 1000000L;
+            preTriggerRing = new PreTriggerRing(builder.preTriggerLines, fields.length);
+        }
 
         OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity()).registerListener(opModeNotifications);
 
         writeHeader();
+
+        if (builder.asyncQueueLines > 0)
+        {
+            asyncWriter = new AsyncWriter(lineFanOut, metrics, builder.asyncQueueLines);
+        }
     }
 
     private class OpModeNotifications implements OpModeManagerNotifier.Notifications
@@ -63,7 +261,8 @@ public class Datalogger
         @Override
         public void onOpModePostStop(OpMode opMode)
         {
-            close();
+            // Don't hold up the next OpMode while the file is written out.
+            closeInBackground();
             OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity()).unregisterListener(this);
         }
 
@@ -71,25 +270,21 @@ public class Datalogger
         public void onOpModePreInit(OpMode opMode) {}
 
         @Override
-        public void onOpModePreStart(OpMode opMode) {}
+        public void onOpModePreStart(OpMode opMode)
+        {
+            // Don't count the wait between INIT and START as a loop period.
+            restartLoopTime = true;
+        }
     }
 
     private void writeHeader()
     {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        for (int i = 0; i < fields.length; i++)
-        {
-            stringBuilder.append(fields[i].name);
-            if (i < fields.length-1)
-            {
-                stringBuilder.append(",");
-            }
-        }
+        StringBuilder stringBuilder = lineBuffer;
+        formatHeader(stringBuilder);
 
         try
         {
-            bufferedCsvWriter.writeLine(stringBuilder.toString());
+            lineFanOut.writeLine(stringBuilder, true);
         }
         catch (IOException e)
         {
@@ -98,237 +293,2383 @@ public class Datalogger
         }
     }
 
-    public void writeLine()
+    private void formatHeader(StringBuilder stringBuilder)
     {
-        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.setLength(0);
 
         for (int i = 0; i < fields.length; i++)
         {
-            fields[i].writeToBuffer(stringBuilder);
+            stringBuilder.append(fields[i].name);
             if (i < fields.length-1)
             {
                 stringBuilder.append(",");
             }
         }
+    }
 
-        try
-        {
-            bufferedCsvWriter.writeLine(stringBuilder.toString());
-        }
-        catch (IOException e)
+    public void writeLine()
+    {
+        if (closing)
         {
-            e.printStackTrace();
-            throw new RuntimeException("Error writing datalog line");
+            return;
         }
-    }
 
-    private void close()
-    {
-        try
+        long now = System.nanoTime();
+        recordLoopTime(now);
+
+        // Columns added since the last line; one volatile read, no lock.
+        LoggableField[] latest = latestFields;
+        if (latest != fields)
         {
-            bufferedCsvWriter.close();
+            changeFields(latest);
         }
-        catch (IOException e)
+
+        writeOrCapture(now);
+
+        if (profiler != null)
         {
-            e.printStackTrace();
+            profiler.endLine();
         }
+
+        metrics.recordWriteLine(System.nanoTime() - now);
     }
 
-    public static abstract class LoggableField
+    /*
+     * Adds a column while the datalog is being written. The column goes after
+     * all existing columns; a new header line is written before the next line.
+     * May be called from any thread. Derived fields can only be added with the
+     * Builder.
+     */
+    public void addField(LoggableField field)
     {
-        protected final String name;
+        if (field == null) throw new RuntimeException("Field must not be null!");
+        if (field instanceof DerivedField) throw new RuntimeException("Derived fields can only be added with the Builder!");
 
-        public LoggableField(String name)
+        // Copy on write: writeLine() picks up the new array at its next call.
+        synchronized (addFieldLock)
         {
-            this.name = name;
+            LoggableField[] current = latestFields;
+            for (LoggableField existing : current)
+            {
+                if (existing == field) throw new RuntimeException("Field is already in the datalog: " + field.name);
+            }
+
+            LoggableField[] tmp = new LoggableField[current.length+1];
+            System.arraycopy(current, 0, tmp, 0, current.length);
+            tmp[current.length] = field;
+            latestFields = tmp;
         }
+    }
 
-        public abstract void writeToBuffer(StringBuilder out);
+    // Lets Row.get() find a field's captured value without searching.
+    private static void numberColumns(LoggableField[] fields)
+    {
+        for (int i = 0; i < fields.length; i++)
+        {
+            fields[i].column = i;
+        }
     }
 
-    public static class GenericField extends LoggableField
+    // Called from writeLine() when columns have been added.
+    private void changeFields(LoggableField[] latest)
     {
-        private String str = "";
-        private static final String STR_FALSE = "false";
-        private static final String STR_TRUE = "true";
+        fields = latest;
+        numberColumns(fields);
+        lineSerializer = new LineSerializer(fields);
+        columnsChanged = true;
 
-        public GenericField(String name)
+        if (summaryStats != null)
         {
-            super(name);
+            summaryStats.addFields(fields);
         }
 
-        @Override
-        public void writeToBuffer(StringBuilder out)
+        if (preTriggerRing != null)
         {
-            out.append(str);
+            preTriggerRing.setFieldCount(fields.length);
         }
 
-        public void set(String string)
+        StringBuilder stringBuilder = lineBuffer;
+        formatHeader(stringBuilder);
+
+        // A lost header would misplace every later column, so wait for queue space.
+        if (asyncWriter != null)
         {
-            str = string;
+            asyncWriter.enqueueWithoutDrop(stringBuilder, true);
         }
-
-        public void set(String format, Object... args)
+        else
         {
-            str = String.format(format, args);
+            writeBuffer(stringBuilder, true);
         }
+    }
 
-        public void set(int val)
+    private void writeOrCapture(long now)
+    {
+        if (startTrigger != null && !triggered)
         {
-            str = Integer.toString(val);
+            if (!checkStartTrigger(now))
+            {
+                // Keep this line, unformatted, in case the trigger fires soon.
+                preTriggerRing.capture(fields, now);
+                return;
+            }
+
+            // Derived values must not span the gap since the last window.
+            for (DerivedField derivedField : derivedFields)
+            {
+                derivedField.reset();
+            }
+
+            for (int i = 0; i < preTriggerRing.size(); i++)
+            {
+                writeFields(preTriggerRing.getCaptured(i), preTriggerRing.getNumericValues(i), preTriggerRing.getNanos(i));
+            }
+            preTriggerRing.clear();
         }
 
-        public void set(boolean val)
+        writeFields(null, null, now);
+
+        if (triggered && triggerWindowEnded(now))
         {
-            str = val ? STR_TRUE : STR_FALSE;
+            triggered = false;
         }
+    }
 
-        public void set(byte val)
+    /*
+     * Evaluates the derived fields, then formats and writes one line. With
+     * captured == null the fields' current values are written; otherwise the
+     * values captured earlier for the pre-trigger ring.
+     */
+    private void writeFields(Object[] captured, double[] numericValues, long nanos)
+    {
+        capturedRow.numericValues = numericValues;
+
+        for (int i = 0; i < derivedFields.length; i++)
         {
-            str = String.format("0x%x", val);
+            double value = derivedFields[i].update(capturedRow, nanos);
+            if (numericValues != null)
+            {
+                numericValues[firstDerivedField + i] = value;
+            }
         }
 
-        public void set(float val)
+        StringBuilder stringBuilder = lineBuffer;
+        formatLine(captured, stringBuilder);
+
+        if (asyncWriter != null)
         {
-            str = String.format("%.3f", val);
+            asyncWriter.enqueue(stringBuilder, false);
         }
-
-        // 6-7-22 Add overloaded method with optional format parameter.
-        public void set(String valFormat, float val)
+        else
         {
-            str = String.format(valFormat, val);
+            writeBuffer(stringBuilder, false);
         }
-        
-        public void set(double val)
+
+        if (summaryStats != null)
         {
-            str = String.format("%.3f", val);
+            if (captured == null)
+            {
+                summaryStats.update(fields);
+            }
+            else
+            {
+                summaryStats.update(numericValues);
+            }
         }
-        
-        // 6-7-22 Add overloaded method with optional format parameter.
-        public void set(String valFormat, double val)
+    }
+
+    private void writeBuffer(StringBuilder stringBuilder, boolean header)
+    {
+        try
         {
-            str = String.format(valFormat, val);
+            lineFanOut.writeLine(stringBuilder, header);
         }
-                
-        // 6-7-22  Added this method so user OpMode telemetry can display 
-        // field contents (instead of memory address).
-        @Override
-        public String toString()
+        catch (IOException e)
         {
-            return str;
+            metrics.recordIoError();
+            e.printStackTrace();
+            throw new RuntimeException("Error writing datalog line");
         }
     }
 
-    private static class TimestampField extends LoggableField
+    private void formatLine(Object[] captured, StringBuilder stringBuilder)
     {
-        private long tRef;
-        private final DecimalFormat timeFmt = new DecimalFormat("000.000");
+        stringBuilder.setLength(0);
 
-        public TimestampField(String name)
+        if (captured == null)
         {
-            super(name);
-            tRef = System.currentTimeMillis();
+            lineSerializer.write(stringBuilder);
+            return;
         }
 
-        public void resetRef()
+        for (int i = 0; i < fields.length; i++)
         {
-            tRef = System.currentTimeMillis();
-        }
+            if (captured[i] != PreTriggerRing.NOT_CAPTURED)
+            {
+                fields[i].writeCaptured(captured[i], stringBuilder);
+            }
 
-        @Override
-        public void writeToBuffer(StringBuilder out)
-        {
-            long deltaMs = System.currentTimeMillis() - tRef;
-            float delta = deltaMs / 1000f;
-            out.append(timeFmt.format(delta));
+            if (i < fields.length-1)
+            {
+                stringBuilder.append(",");
+            }
         }
     }
 
-    public enum AutoTimestamp
+    /*
+     * Call during INIT, after build(), to warm up the logging code before START.
+     * Runs every formatting path on the fields' current values and on a scratch
+     * field, without writing anything to the datalog or touching its statistics,
+     * then sizes the line buffers from the longest line seen and writes the
+     * header to storage.
+     */
+    public void prepare()
     {
-        DECIMAL_SECONDS,
-        NONE
+        prepare(DEFAULT_WARMUP_LINES);
     }
 
-    public static class Builder
+    public void prepare(int warmupLines)
     {
-        private String filename;
-        private LoggableField[] fields;
-        private AutoTimestamp autoTimestamp;
-
-        public Builder setFilename(String filename)
-        {
-            this.filename = filename;
-            return this;
-        }
+        GenericField scratchField = new GenericField("Warmup");
+        StringBuilder scratch = new StringBuilder(256);
+        DatalogStats scratchStats = new DatalogStats(fields);
+        DatalogHistogram scratchHistogram = new DatalogHistogram();
+        int longestLine = 0;
 
-        public Builder setFields(LoggableField... fields)
+        for (int n = 0; n < warmupLines; n++)
         {
-            this.fields = fields;
-            return this;
-        }
+            // The String.format() and number paths of GenericField.set().
+            scratchField.set(n);
+            scratchField.set(n * 0.001);
+            scratchField.set(n * 0.001f);
+            scratchField.set("%.2f", n * 0.001);
+            scratchField.set((byte) n);
+            scratchField.set(n % 2 == 0);
+            scratchField.set("Warmup");
 
-        public Builder setAutoTimestamp(AutoTimestamp autoTimestamp)
-        {
-            this.autoTimestamp = autoTimestamp;
-            return this;
-        }
+            scratch.setLength(0);
+            for (LoggableField field : fields)
+            {
+                field.warmUp(scratch);
+            }
 
-        public Datalogger build()
-        {
-            if (filename == null) throw new RuntimeException("Filename must not be null!");
-            if (filename.endsWith(".csv")) filename = filename.replace(".csv", "");
-            if (fields == null) throw new RuntimeException("Fields must not be null!");
-            if (fields.length == 0) throw new RuntimeException("Fields must be non-zero length!");
-            if (autoTimestamp == null) throw new RuntimeException("AutoTimestamp must not be null!");
+            formatLine(null, scratch);
+            longestLine = Math.max(longestLine, scratch.length());
 
-            if (autoTimestamp == AutoTimestamp.DECIMAL_SECONDS)
+            // With async writes the writer thread owns the file buffer.
+            if (asyncWriter == null)
             {
-                LoggableField[] tmp = new LoggableField[fields.length+1];
-                tmp[0] = new TimestampField("Timestamp");
-                System.arraycopy(fields, 0, tmp, 1, fields.length);
-                fields = tmp;
+                lineFanOut.warmUp(scratch);
             }
 
+            scratchStats.update(fields);
+            scratchHistogram.recordValue(n);
+        }
+
+        // Leave room for lines a good deal longer than the ones seen so far.
+        lineBuffer.ensureCapacity(longestLine * 2);
+        if (asyncWriter != null)
+        {
+            asyncWriter.ensureCapacity(longestLine * 2);
+        }
+        else
+        {
             try
             {
-                BufferedCsvWriter bufferedCsvWriter = new BufferedCsvWriter(String.format("/sdcard/FIRST/java/src/Datalogs/%s.txt", filename));
-                return new Datalogger(bufferedCsvWriter, fields);
+                lineFanOut.flush();
             }
             catch (IOException e)
             {
+                metrics.recordIoError();
                 e.printStackTrace();
-                throw new RuntimeException("Unable to create output file handle :(");
             }
         }
     }
 
-    private static class BufferedCsvWriter
+    /*
+     * The start trigger fires when its condition is met, but only after the
+     * condition has been seen false since the last window. A sensor that stays
+     * tripped therefore gives one window, not continuous logging.
+     */
+    private boolean checkStartTrigger(long now)
     {
-        private FileWriter fileWriter;
-        private BufferedWriter bufferedWriter;
-
-        public BufferedCsvWriter(String filepath) throws IOException
+        if (!startTrigger.isMet())
         {
-            File tmp = new File(filepath);
-            if (!tmp.exists())
-            {
-                tmp.getParentFile().mkdirs();
-            }
+            triggerArmed = true;
+            return false;
+        }
 
-            fileWriter = new FileWriter(filepath, false);
-            bufferedWriter = new BufferedWriter(fileWriter);
+        if (!triggerArmed)
+        {
+            return false;
         }
 
-        public void writeLine(String line) throws IOException
+        triggerArmed = false;
+        triggered = true;
+        triggerStartNanos = now;
+        return true;
+    }
+
+    private boolean triggerWindowEnded(long now)
+    {
+        if (stopTrigger != null && stopTrigger.isMet())
         {
-            bufferedWriter.write(line);
-            bufferedWriter.newLine();
+            return true;
         }
+        return triggerTimeoutNanos > 0 && now - triggerStartNanos >= triggerTimeoutNanos;
+    }
 
-        public void close() throws IOException
+    // True while lines are being written, always true without a start trigger.
+    public boolean isTriggered()
+    {
+        return startTrigger == null || triggered;
+    }
+
+    private void recordLoopTime(long now)
+    {
+        if (restartLoopTime)
         {
-            bufferedWriter.close();
+            restartLoopTime = false;
+        }
+        else if (lastLineNanos != 0)
+        {
+            loopTimeHistogram.recordValue((now - lastLineNanos) / 1000);
+        }
+
+        lastLineNanos = now;
+    }
+
+    /*
+     * Returns the distribution of time between writeLine() calls, for example
+     * to show loop-time percentiles on telemetry.
+     */
+    public DatalogHistogram getLoopTimeHistogram()
+    {
+        return loopTimeHistogram;
+    }
+
+    /*
+     * Returns the running statistics of the numeric fields, or null if the
+     * Builder did not request them with setSummaryStats(true).
+     */
+    public DatalogStats getSummaryStats()
+    {
+        return summaryStats;
+    }
+
+    // The logger's own performance: writeLine() time, bytes written, flushes, etc.
+    public DatalogMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    // The live tail (see Builder.setLiveTail()), or null if there is none or its port couldn't be opened.
+    public DatalogLiveTail getLiveTail()
+    {
+        return liveTail;
+    }
+
+    /*
+     * Waits up to timeoutMs for the datalog to be closed after the OpMode stops.
+     * Returns true if every line has been written and synced to storage.
+     */
+    public boolean awaitClose(long timeoutMs)
+    {
+        Thread thread;
+        synchronized (pendingCloses)
+        {
+            thread = closeThread;
+        }
+
+        if (thread == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            thread.join(timeoutMs);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return !thread.isAlive();
+    }
+
+    /*
+     * The close runs on its own (non-daemon) thread, which keeps going past the
+     * deadline if it has to: a slow close is reported, never cut short.
+     */
+    private void closeInBackground()
+    {
+        synchronized (pendingCloses)
+        {
+            if (closeThread != null)
+            {
+                return;
+            }
+
+            closing = true;
+            closeThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long start = System.nanoTime();
+                    close();
+                    metrics.recordClose(System.nanoTime() - start, closeDeadlineNanos);
+
+                    synchronized (pendingCloses)
+                    {
+                        if (filepath != null)
+                        {
+                            pendingCloses.remove(filepath);
+                            openFilepaths.remove(filepath);
+                            openFilepaths.remove(previewFilepath);
+                        }
+                        pendingCloses.notifyAll();
+                    }
+                }
+            }, "Datalogger close");
+
+            if (filepath != null)
+            {
+                pendingCloses.put(filepath, closeThread);
+            }
+            closeThread.start();
+        }
+    }
+
+    // Called by build(), so a new datalog never truncates one that is still being written.
+    private static void awaitPendingClose(String filepath)
+    {
+        synchronized (pendingCloses)
+        {
+            while (pendingCloses.containsKey(filepath))
+            {
+                try
+                {
+                    pendingCloses.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Datalogs left unclosed by a crash, repaired when this Datalogger was built. Usually empty.
+    public String[] getRecoveredDatalogs()
+    {
+        return recoveredDatalogs;
+    }
+
+    private void close()
+    {
+        if (asyncWriter != null)
+        {
+            asyncWriter.close();
+        }
+
+        try
+        {
+            lineFanOut.close();
+        }
+        catch (IOException e)
+        {
+            metrics.recordIoError();
+            e.printStackTrace();
+        }
+
+        // With only setLoopTimeSummary(), the file has just the loop-time row, if there was a loop.
+        if (summaryStats != null || (summaryFilepath != null && loopTimeHistogram.getCount() > 0))
+        {
+            DatalogStats stats = summaryStats != null ? summaryStats : new DatalogStats(new LoggableField[0]);
+
+            try
+            {
+                stats.writeSummary(summaryFilepath, loopTimeHistogram);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+
+        if (columnsFilepath != null && columnsChanged)
+        {
+            writeColumnMetadata();
+        }
+    }
+
+    private void writeColumnMetadata()
+    {
+        try
+        {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(columnsFilepath, false));
+
+            try
+            {
+                writer.write("Column,Type,Units,Precision,Description");
+                writer.newLine();
+
+                for (LoggableField field : fields)
+                {
+                    writer.write(csvCell(field.name) + ","
+                            + (field.type != null ? field.type.name() : "") + ","
+                            + csvCell(field.units) + ","
+                            + (field.precision >= 0 ? Integer.toString(field.precision) : "") + ","
+                            + csvCell(field.description));
+                    writer.newLine();
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    // Quotes text that contains a comma, quote or line break, as spreadsheets expect.
+    private static String csvCell(String text)
+    {
+        if (text == null)
+        {
+            return "";
+        }
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0)
+        {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    // The type of a column's values, for the column metadata file.
+    public enum ColumnType
+    {
+        NUMBER,
+        INTEGER,
+        BOOLEAN,
+        TEXT
+    }
+
+    public static abstract class LoggableField
+    {
+        protected final String name;
+        private ColumnType type;
+        private String units;
+        private int precision = -1;
+        private String description;
+
+        // Position in the Datalogger's columns, set when the field is added to one.
+        int column = -1;
+
+        public LoggableField(String name)
+        {
+            this.name = name;
+        }
+
+        // Optional column metadata; see Builder.setColumnMetadata().
+        public LoggableField setType(ColumnType type)
+        {
+            this.type = type;
+            return this;
+        }
+
+        public LoggableField setUnits(String units)
+        {
+            this.units = units;
+            return this;
+        }
+
+        // Number of decimal places written.
+        public LoggableField setPrecision(int precision)
+        {
+            this.precision = precision;
+            return this;
+        }
+
+        public LoggableField setDescription(String description)
+        {
+            this.description = description;
+            return this;
+        }
+
+        public ColumnType getType()
+        {
+            return type;
+        }
+
+        public String getUnits()
+        {
+            return units;
+        }
+
+        public int getPrecision()
+        {
+            return precision;
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+
+        public abstract void writeToBuffer(StringBuilder out);
+
+        /*
+         * Returns the current value in a form that writeCaptured() can write
+         * later, for the pre-trigger ring. Fields should avoid formatting here;
+         * this default formats the value as text.
+         */
+        protected Object capture()
+        {
+            StringBuilder out = new StringBuilder();
+            writeToBuffer(out);
+            return out.toString();
+        }
+
+        protected void writeCaptured(Object captured, StringBuilder out)
+        {
+            out.append((String) captured);
+        }
+
+        // Called by Datalogger.prepare() to run this field's formatting code early.
+        protected void warmUp(StringBuilder scratch)
+        {
+            writeToBuffer(scratch);
+        }
+
+        // The current value as a number, for summary statistics.
+        // Fields that do not hold a number return NaN and are skipped.
+        public double getNumericValue()
+        {
+            return Double.NaN;
+        }
+    }
+
+    public static class GenericField extends LoggableField
+    {
+        private String str = "";
+        private double num = Double.NaN;
+        private static final String STR_FALSE = "false";
+        private static final String STR_TRUE = "true";
+
+        public GenericField(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public void writeToBuffer(StringBuilder out)
+        {
+            out.append(str);
+        }
+
+        @Override
+        public double getNumericValue()
+        {
+            return num;
+        }
+
+        // The text is already formatted by set(), so capturing it is free.
+        @Override
+        protected Object capture()
+        {
+            return str;
+        }
+
+        public void set(String string)
+        {
+            str = string;
+            num = Double.NaN;
+        }
+
+        public void set(String format, Object... args)
+        {
+            str = String.format(format, args);
+            num = Double.NaN;
+        }
+
+        public void set(int val)
+        {
+            str = Integer.toString(val);
+            num = val;
+        }
+
+        public void set(boolean val)
+        {
+            str = val ? STR_TRUE : STR_FALSE;
+            num = Double.NaN;
+        }
+
+        public void set(byte val)
+        {
+            str = String.format("0x%x", val);
+            num = Double.NaN;
+        }
+
+        public void set(float val)
+        {
+            str = String.format("%.3f", val);
+            num = val;
+        }
+
+        // 6-7-22 Add overloaded method with optional format parameter.
+        public void set(String valFormat, float val)
+        {
+            str = String.format(valFormat, val);
+            num = val;
+        }
+        
+        public void set(double val)
+        {
+            str = String.format("%.3f", val);
+            num = val;
+        }
+        
+        // 6-7-22 Add overloaded method with optional format parameter.
+        public void set(String valFormat, double val)
+        {
+            str = String.format(valFormat, val);
+            num = val;
+        }
+                
+        // 6-7-22  Added this method so user OpMode telemetry can display 
+        // field contents (instead of memory address).
+        @Override
+        public String toString()
+        {
+            return str;
+        }
+    }
+
+    static final class TimestampField extends LoggableField
+    {
+        private long tRef;
+        private final DecimalFormat timeFmt = new DecimalFormat("000.000");
+
+        public TimestampField(String name)
+        {
+            super(name);
+            tRef = System.currentTimeMillis();
+            setType(ColumnType.NUMBER).setUnits("s").setPrecision(3)
+                    .setDescription("Seconds since the datalog was created");
+        }
+
+        public void resetRef()
+        {
+            tRef = System.currentTimeMillis();
+        }
+
+        @Override
+        public void writeToBuffer(StringBuilder out)
+        {
+            format(System.currentTimeMillis() - tRef, out);
+        }
+
+        // Keep the time the line was captured, not the time it is written.
+        @Override
+        protected Object capture()
+        {
+            return System.currentTimeMillis() - tRef;
+        }
+
+        @Override
+        protected void writeCaptured(Object captured, StringBuilder out)
+        {
+            format((Long) captured, out);
+        }
+
+        private void format(long deltaMs, StringBuilder out)
+        {
+            float delta = deltaMs / 1000f;
+            out.append(timeFmt.format(delta));
+        }
+    }
+
+    /*
+     * Marks a field of an object given to Builder.addFieldsFrom() as a datalog
+     * column. The field may be any primitive type or a String. Columns are in
+     * increasing order(), then in order of the Java field name: Android does not
+     * keep the order in which fields are declared.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface Log
+    {
+        String value();
+        int order() default 0;
+        String units() default "";
+        String description() default "";
+    }
+
+    /*
+     * Reads the value of one @Log field for the Datalogger, typically a lambda
+     * such as () -> yaw. An object given to Builder.addFieldsFrom() supplies
+     * one for each of its logged fields in bindFields(); see LogSource.
+     */
+    public interface DoubleAccessor
+    {
+        double get();
+    }
+
+    public interface LongAccessor
+    {
+        long get();
+    }
+
+    public interface BooleanAccessor
+    {
+        boolean get();
+    }
+
+    public interface StringAccessor
+    {
+        String get();
+    }
+
+    /*
+     * Implemented by an object given to Builder.addFieldsFrom(). Its @Log
+     * fields are found by reflection once, when the Builder is given the
+     * object; bindFields() then gives an accessor for each, by Java field name:
+     *
+     *     binder.bindDouble("yaw", () -> yaw)
+     *           .bindString("opModeStatus", () -> opModeStatus);
+     *
+     * Use bindDouble() for double and float fields, bindLong() for long, int,
+     * short, byte and char, bindBoolean() and bindString(). Each writeLine()
+     * then reads the fields through these accessors, never by reflection.
+     */
+    public interface LogSource
+    {
+        void bindFields(FieldBinder binder);
+    }
+
+    public static final class FieldBinder
+    {
+        private final HashMap<String, AnnotatedField> fields = new HashMap<>();
+
+        private FieldBinder(ArrayList<AnnotatedField> fields)
+        {
+            for (AnnotatedField field : fields)
+            {
+                this.fields.put(field.javaName, field);
+            }
+        }
+
+        public FieldBinder bindDouble(String fieldName, DoubleAccessor accessor)
+        {
+            field(fieldName, AnnotatedField.DOUBLE, AnnotatedField.FLOAT).doubleAccessor = accessor;
+            return this;
+        }
+
+        public FieldBinder bindLong(String fieldName, LongAccessor accessor)
+        {
+            field(fieldName, AnnotatedField.LONG, AnnotatedField.CHAR).longAccessor = accessor;
+            return this;
+        }
+
+        public FieldBinder bindBoolean(String fieldName, BooleanAccessor accessor)
+        {
+            field(fieldName, AnnotatedField.BOOLEAN, AnnotatedField.BOOLEAN).booleanAccessor = accessor;
+            return this;
+        }
+
+        public FieldBinder bindString(String fieldName, StringAccessor accessor)
+        {
+            field(fieldName, AnnotatedField.STRING, AnnotatedField.STRING).stringAccessor = accessor;
+            return this;
+        }
+
+        private AnnotatedField field(String fieldName, int firstKind, int lastKind)
+        {
+            AnnotatedField field = fields.get(fieldName);
+            if (field == null) throw new RuntimeException("Not a logged field: " + fieldName + "!");
+            if (field.kind < firstKind || field.kind > lastKind) throw new RuntimeException("Wrong accessor type for logged field: " + fieldName + "!");
+            if (field.isBound()) throw new RuntimeException("Logged field bound twice: " + fieldName + "!");
+            return field;
+        }
+    }
+
+    /*
+     * A column read from an annotated field. Reflection is used only to find
+     * the @Log fields and their types, once per class; each line then reads
+     * the value through the typed accessor the source object bound to it, so
+     * numbers are never boxed.
+     */
+    static final class AnnotatedField extends LoggableField
+    {
+        // In the order of the FieldBinder ranges: DOUBLE-FLOAT, LONG-CHAR.
+        static final int DOUBLE = 0;
+        static final int FLOAT = 1;
+        static final int LONG = 2;
+        static final int INT = 3;
+        static final int SHORT = 4;
+        static final int BYTE = 5;
+        static final int CHAR = 6;
+        static final int BOOLEAN = 7;
+        static final int STRING = 8;
+
+        // Annotated fields of each class, found once and sorted.
+        private static final HashMap<Class<?>, Field[]> classFields = new HashMap<>();
+
+        private final String javaName;
+        private final int kind;
+        private DoubleAccessor doubleAccessor;
+        private LongAccessor longAccessor;
+        private BooleanAccessor booleanAccessor;
+        private StringAccessor stringAccessor;
+
+        AnnotatedField(Field field)
+        {
+            super(field.getAnnotation(Log.class).value());
+            this.javaName = field.getName();
+            this.kind = kindOf(field);
+
+            Log log = field.getAnnotation(Log.class);
+            setType(kind <= FLOAT ? ColumnType.NUMBER
+                    : kind <= SHORT ? ColumnType.INTEGER
+                    : kind == BOOLEAN ? ColumnType.BOOLEAN
+                    : ColumnType.TEXT);
+            setPrecision(kind <= FLOAT ? 3 : kind <= SHORT ? 0 : -1);
+            setUnits(log.units().isEmpty() ? null : log.units());
+            setDescription(log.description().isEmpty() ? null : log.description());
+        }
+
+        static ArrayList<AnnotatedField> fieldsOf(Object source)
+        {
+            if (!(source instanceof LogSource)) throw new RuntimeException("Object with logged fields must implement Datalogger.LogSource!");
+
+            ArrayList<AnnotatedField> result = new ArrayList<>();
+            for (Field field : annotatedFields(source.getClass()))
+            {
+                result.add(new AnnotatedField(field));
+            }
+
+            ((LogSource) source).bindFields(new FieldBinder(result));
+
+            for (AnnotatedField field : result)
+            {
+                if (!field.isBound()) throw new RuntimeException("Logged field has no accessor: " + field.javaName + "!");
+            }
+            return result;
+        }
+
+        private static Field[] annotatedFields(Class<?> cls)
+        {
+            synchronized (classFields)
+            {
+                Field[] cached = classFields.get(cls);
+                if (cached != null)
+                {
+                    return cached;
+                }
+
+                ArrayList<Field> found = new ArrayList<>();
+                for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass())
+                {
+                    for (Field field : c.getDeclaredFields())
+                    {
+                        if (field.getAnnotation(Log.class) == null)
+                        {
+                            continue;
+                        }
+                        if (Modifier.isStatic(field.getModifiers())) throw new RuntimeException("Logged field must not be static: " + field.getName());
+                        kindOf(field);
+                        found.add(field);
+                    }
+                }
+
+                Collections.sort(found, new Comparator<Field>()
+                {
+                    @Override
+                    public int compare(Field a, Field b)
+                    {
+                        int byOrder = Integer.compare(a.getAnnotation(Log.class).order(), b.getAnnotation(Log.class).order());
+                        return byOrder != 0 ? byOrder : a.getName().compareTo(b.getName());
+                    }
+                });
+
+                cached = found.toArray(new Field[0]);
+                classFields.put(cls, cached);
+                return cached;
+            }
+        }
+
+        private static int kindOf(Field field)
+        {
+            Class<?> type = field.getType();
+            if (type == double.class) return DOUBLE;
+            if (type == float.class) return FLOAT;
+            if (type == long.class) return LONG;
+            if (type == int.class) return INT;
+            if (type == short.class) return SHORT;
+            if (type == byte.class) return BYTE;
+            if (type == char.class) return CHAR;
+            if (type == boolean.class) return BOOLEAN;
+            if (type == String.class) return STRING;
+            throw new RuntimeException("Logged field must be a primitive or String: " + field.getName());
+        }
+
+        private boolean isBound()
+        {
+            return doubleAccessor != null || longAccessor != null || booleanAccessor != null || stringAccessor != null;
+        }
+
+        // Numbers are formatted the same way as the matching GenericField.set().
+        @Override
+        public void writeToBuffer(StringBuilder out)
+        {
+            switch (kind)
+            {
+                case DOUBLE:  out.append(String.format("%.3f", doubleAccessor.get())); break;
+                case FLOAT:   out.append(String.format("%.3f", (float) doubleAccessor.get())); break;
+                case BYTE:    out.append(String.format("0x%x", (byte) longAccessor.get())); break;
+                case CHAR:    out.append((char) longAccessor.get()); break;
+                case BOOLEAN: out.append(booleanAccessor.get() ? "true" : "false"); break;
+                case STRING:
+                    String value = stringAccessor.get();
+                    if (value != null)
+                    {
+                        out.append(value);
+                    }
+                    break;
+                default:      out.append(longAccessor.get());
+            }
+        }
+
+        @Override
+        public double getNumericValue()
+        {
+            switch (kind)
+            {
+                case DOUBLE:
+                case FLOAT:  return doubleAccessor.get();
+                case LONG:
+                case INT:
+                case SHORT:  return longAccessor.get();
+                default:     return Double.NaN;
+            }
+        }
+    }
+
+    /*
+     * The values of one line, as seen by a derived field. For a line being
+     * written now these are the fields' current values; for a pre-trigger
+     * line they are the values captured when writeLine() was called.
+     */
+    public class Row
+    {
+        private double[] numericValues;
+
+        public double get(LoggableField field)
+        {
+            if (numericValues == null)
+            {
+                return field.getNumericValue();
+            }
+
+            int column = field.column;
+            if (column >= 0 && column < fields.length && fields[column] == field)
+            {
+                return numericValues[column];
+            }
+
+            // Only a field also given to another Datalogger, at another position, gets here.
+            for (int i = 0; i < fields.length; i++)
+            {
+                if (fields[i] == field)
+                {
+                    return numericValues[i];
+                }
+            }
+            return Double.NaN;
+        }
+    }
+
+    public interface Formula
+    {
+        double compute(Row row);
+    }
+
+    /*
+     * A column computed by the Datalogger from other fields, only for lines
+     * that are written. Use the static methods to create one and pass it to
+     * Builder.addDerivedField(). Each keeps constant-size state, so the work
+     * per line does not grow with the length of the log.
+     */
+    public static abstract class DerivedField extends LoggableField
+    {
+        private double value = Double.NaN;
+        private final DecimalFormat decimalFormat = new DecimalFormat("0.000");
+
+        protected DerivedField(String name)
+        {
+            super(name);
+            setType(ColumnType.NUMBER).setPrecision(3);
+        }
+
+        // Rate of change of the source, per second.
+        public static DerivedField derivative(String name, final LoggableField source)
+        {
+            return new DerivedField(name)
+            {
+                private double lastValue = Double.NaN;
+                private long lastNanos;
+
+                @Override
+                protected double compute(Row row, long nanos)
+                {
+                    double val = row.get(source);
+                    double rate = Double.NaN;
+
+                    if (!Double.isNaN(lastValue) && nanos != lastNanos)
+                    {
+                        rate = (val - lastValue) / ((nanos - lastNanos) / 1e9);
+                    }
+
+                    lastValue = val;
+                    lastNanos = nanos;
+                    return rate;
+                }
+
+                @Override
+                protected void reset()
+                {
+                    lastValue = Double.NaN;
+                }
+            };
+        }
+
+        // Trapezoidal integral of the source over time, in source units times seconds.
+        public static DerivedField integral(String name, final LoggableField source)
+        {
+            return new DerivedField(name)
+            {
+                private double sum;
+                private double lastValue = Double.NaN;
+                private long lastNanos;
+
+                @Override
+                protected double compute(Row row, long nanos)
+                {
+                    double val = row.get(source);
+
+                    if (Double.isNaN(val))
+                    {
+                        return sum;
+                    }
+
+                    if (!Double.isNaN(lastValue))
+                    {
+                        sum += (val + lastValue) / 2 * ((nanos - lastNanos) / 1e9);
+                    }
+
+                    lastValue = val;
+                    lastNanos = nanos;
+                    return sum;
+                }
+
+                @Override
+                protected void reset()
+                {
+                    lastValue = Double.NaN;
+                }
+            };
+        }
+
+        // Exponential moving average; alpha is the weight of the newest value (0 to 1).
+        public static DerivedField ema(String name, final LoggableField source, final double alpha)
+        {
+            if (!(alpha > 0 && alpha <= 1)) throw new RuntimeException("EMA alpha must be more than 0 and at most 1!");
+
+            return new DerivedField(name)
+            {
+                private double average = Double.NaN;
+
+                @Override
+                protected double compute(Row row, long nanos)
+                {
+                    double val = row.get(source);
+
+                    if (Double.isNaN(average))
+                    {
+                        average = val;
+                    }
+                    else if (!Double.isNaN(val))
+                    {
+                        average += alpha * (val - average);
+                    }
+                    return average;
+                }
+
+                @Override
+                protected void reset()
+                {
+                    average = Double.NaN;
+                }
+            };
+        }
+
+        // Mean of the source over the last windowLines written lines.
+        public static DerivedField windowMean(String name, final LoggableField source, final int windowLines)
+        {
+            if (windowLines < 1) throw new RuntimeException("Window mean must cover at least 1 line!");
+
+            return new DerivedField(name)
+            {
+                private final double[] window = new double[windowLines];
+                private int next;
+                private int size;
+                private double sum;
+
+                @Override
+                protected double compute(Row row, long nanos)
+                {
+                    double val = row.get(source);
+
+                    if (Double.isNaN(val))
+                    {
+                        return size > 0 ? sum / size : Double.NaN;
+                    }
+
+                    if (size == window.length)
+                    {
+                        sum -= window[next];
+                    }
+                    else
+                    {
+                        size++;
+                    }
+
+                    window[next] = val;
+                    sum += val;
+                    next = (next + 1) % window.length;
+                    return sum / size;
+                }
+
+                @Override
+                protected void reset()
+                {
+                    size = 0;
+                    next = 0;
+                    sum = 0;
+                }
+            };
+        }
+
+        // Any function of other fields, e.g. row -> row.get(left) - row.get(right)
+        public static DerivedField formula(String name, final Formula formula)
+        {
+            return new DerivedField(name)
+            {
+                @Override
+                protected double compute(Row row, long nanos)
+                {
+                    return formula.compute(row);
+                }
+            };
+        }
+
+        protected abstract double compute(Row row, long nanos);
+
+        // Forget history, so the next value does not depend on lines before a gap.
+        protected void reset() {}
+
+        double update(Row row, long nanos)
+        {
+            value = compute(row, nanos);
+            return value;
+        }
+
+        @Override
+        public double getNumericValue()
+        {
+            return value;
+        }
+
+        @Override
+        protected void warmUp(StringBuilder scratch)
+        {
+            scratch.append(decimalFormat.format(1.234));
+        }
+
+        // A value that can't be computed yet (e.g. the first derivative) is left blank.
+        @Override
+        public void writeToBuffer(StringBuilder out)
+        {
+            if (!Double.isNaN(value))
+            {
+                out.append(decimalFormat.format(value));
+            }
+        }
+
+        // Derived fields are evaluated when the line is written, not when it is captured.
+        @Override
+        protected Object capture()
+        {
+            return null;
+        }
+
+        @Override
+        protected void writeCaptured(Object captured, StringBuilder out)
+        {
+            writeToBuffer(out);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Double.isNaN(value) ? "" : decimalFormat.format(value);
+        }
+    }
+
+    /*
+     * A start or stop trigger, typically a lambda that checks a sensor,
+     * e.g. () -> intakeSensor.isPressed()
+     */
+    public interface Condition
+    {
+        boolean isMet();
+    }
+
+    /*
+     * Keeps the last few lines before the start trigger fires. Each slot holds
+     * the fields' captured values, not formatted text.
+     */
+    private static class PreTriggerRing
+    {
+        // A column added after the line was captured; written blank.
+        static final Object NOT_CAPTURED = new Object();
+
+        private final Object[][] captured;
+        private final double[][] numericValues;
+        private final long[] nanos;
+        private int next;
+        private int size;
+
+        public PreTriggerRing(int capacity, int fieldCount)
+        {
+            captured = new Object[capacity][fieldCount];
+            numericValues = new double[capacity][fieldCount];
+            nanos = new long[capacity];
+        }
+
+        public void capture(LoggableField[] fields, long now)
+        {
+            if (captured.length == 0)
+            {
+                return;
+            }
+
+            for (int i = 0; i < fields.length; i++)
+            {
+                captured[next][i] = fields[i].capture();
+                numericValues[next][i] = fields[i].getNumericValue();
+            }
+            nanos[next] = now;
+
+            next = (next + 1) % captured.length;
+            if (size < captured.length)
+            {
+                size++;
+            }
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        // Called when columns are added; lines already captured get blank values for them.
+        public void setFieldCount(int fieldCount)
+        {
+            for (int s = 0; s < captured.length; s++)
+            {
+                int oldCount = captured[s].length;
+                captured[s] = Arrays.copyOf(captured[s], fieldCount);
+                numericValues[s] = Arrays.copyOf(numericValues[s], fieldCount);
+                Arrays.fill(captured[s], oldCount, fieldCount, NOT_CAPTURED);
+                Arrays.fill(numericValues[s], oldCount, fieldCount, Double.NaN);
+            }
+        }
+
+        // Index 0 is the oldest captured line.
+        public Object[] getCaptured(int i)
+        {
+            return captured[slot(i)];
+        }
+
+        public double[] getNumericValues(int i)
+        {
+            return numericValues[slot(i)];
+        }
+
+        public long getNanos(int i)
+        {
+            return nanos[slot(i)];
+        }
+
+        public void clear()
+        {
+            size = 0;
+        }
+
+        private int slot(int i)
+        {
+            return (next - size + i + captured.length) % captured.length;
+        }
+    }
+
+    public enum AutoTimestamp
+    {
+        DECIMAL_SECONDS,
+        NONE
+    }
+
+    public static class Builder
+    {
+        private String filename;
+        private LoggableField[] fields;
+        private ArrayList<LoggableField> annotatedFields = new ArrayList<>();
+        private AutoTimestamp autoTimestamp;
+        private boolean summaryStats;
+        private boolean loopTimeSummary;
+        private Condition startTrigger;
+        private Condition stopTrigger;
+        private long triggerTimeoutMs;
+        private int preTriggerLines;
+        private ArrayList<DerivedField> derivedFields = new ArrayList<>();
+        private DatalogProfiler profiler;
+        private int asyncQueueLines;
+        private String directory = DATALOG_DIRECTORY;
+        private OutputStream outputStream;
+        private int closeDeadlineMs = DEFAULT_CLOSE_DEADLINE_MS;
+        private ArrayList<String> recoveredDatalogs = new ArrayList<>();
+        private DatalogRetention retention;
+        private boolean columnMetadata;
+        private int previewLines;
+        private int liveTailPort = -1;
+        private int liveTailEveryNthLine = 1;
+        private DatalogLiveTail liveTail;
+        private ArrayList<Sink> sinks = new ArrayList<>();
+
+        public Builder setFilename(String filename)
+        {
+            this.filename = filename;
+            return this;
+        }
+
+        public Builder setFields(LoggableField... fields)
+        {
+            this.fields = fields;
+            return this;
+        }
+
+        /*
+         * Add a column for each field of the object marked with @Datalogger.Log,
+         * after the fields given to setFields(). The object must implement
+         * LogSource; its accessors are read on every writeLine().
+         */
+        public Builder addFieldsFrom(Object source)
+        {
+            this.annotatedFields.addAll(AnnotatedField.fieldsOf(source));
+            return this;
+        }
+
+        public Builder setAutoTimestamp(AutoTimestamp autoTimestamp)
+        {
+            this.autoTimestamp = autoTimestamp;
+            return this;
+        }
+
+        // Keep mean, standard deviation, min, max and percentiles of every
+        // numeric field, and write them to <filename>_summary.txt on close,
+        // followed by the "Loop ms" row (loop period p50, p99, p99.9, max).
+        public Builder setSummaryStats(boolean summaryStats)
+        {
+            this.summaryStats = summaryStats;
+            return this;
+        }
+
+        // Write just the "Loop ms" row to <filename>_summary.txt on close,
+        // without keeping statistics of the fields. Off by default, so a
+        // datalog gets no summary file unless one of these is set.
+        public Builder setLoopTimeSummary(boolean loopTimeSummary)
+        {
+            this.loopTimeSummary = loopTimeSummary;
+            return this;
+        }
+
+        // Write nothing until this condition is met. Without a start trigger,
+        // every call to writeLine() writes a line.
+        public Builder setStartTrigger(Condition startTrigger)
+        {
+            this.startTrigger = startTrigger;
+            return this;
+        }
+
+        // End the logging window when this condition is met.
+        public Builder setStopTrigger(Condition stopTrigger)
+        {
+            this.stopTrigger = stopTrigger;
+            return this;
+        }
+
+        // End the logging window this many milliseconds after it starts.
+        public Builder setTriggerTimeout(long triggerTimeoutMs)
+        {
+            this.triggerTimeoutMs = triggerTimeoutMs;
+            return this;
+        }
+
+        // Number of lines before the start trigger to keep and write.
+        public Builder setPreTriggerLines(int preTriggerLines)
+        {
+            this.preTriggerLines = preTriggerLines;
+            return this;
+        }
+
+        // Add a computed column after the fields, e.g.
+        // .addDerivedField(Datalogger.DerivedField.derivative("Yaw Rate", yaw))
+        public Builder addDerivedField(DerivedField derivedField)
+        {
+            derivedFields.add(derivedField);
+            return this;
+        }
+
+        // Add a column for each section of the profiler, after the fields.
+        public Builder setProfiler(DatalogProfiler profiler)
+        {
+            this.profiler = profiler;
+            return this;
+        }
+
+        /*
+         * Write the file from a background thread. writeLine() then only copies
+         * the formatted line into a queue of this many lines. If the queue is
+         * full the line is dropped, and counted in getMetrics().
+         */
+        public Builder setAsyncWrites(int queueLines)
+        {
+            this.asyncQueueLines = queueLines;
+            return this;
+        }
+
+        // Folder for the datalog and its summary file, instead of DATALOG_DIRECTORY.
+        public Builder setDirectory(String directory)
+        {
+            this.directory = directory;
+            return this;
+        }
+
+        // Write each column's type, units, etc. to <filename>_columns.txt.
+        public Builder setColumnMetadata(boolean columnMetadata)
+        {
+            this.columnMetadata = columnMetadata;
+            return this;
+        }
+
+        /*
+         * Also keep a short copy of the datalog, of at most this many lines of
+         * data, for viewing in OnBot Java. 0 (the default) for none.
+         */
+        public Builder setPreviewLines(int previewLines)
+        {
+            this.previewLines = previewLines;
+            return this;
+        }
+
+        // Stream every line written to programs connected to this TCP port.
+        public Builder setLiveTail(int port)
+        {
+            return setLiveTail(port, 1);
+        }
+
+        // Same, but only every Nth line of data (header lines are always sent).
+        public Builder setLiveTail(int port, int everyNthLine)
+        {
+            this.liveTailPort = port;
+            this.liveTailEveryNthLine = everyNthLine;
+            return this;
+        }
+
+        /*
+         * Also pass every line to this sink, after the file, preview and live
+         * tail; see Datalogger.Sink. Can be called more than once.
+         */
+        public Builder addSink(Sink sink)
+        {
+            this.sinks.add(sink);
+            return this;
+        }
+
+        // Prune or compress old datalogs in the folder; see DatalogRetention.java.
+        public Builder setRetention(DatalogRetention retention)
+        {
+            this.retention = retention;
+            return this;
+        }
+
+        /*
+         * How long closing the datalog after the OpMode stops should take. The
+         * close finishes even if it takes longer; getMetrics() reports whether
+         * it made the deadline.
+         */
+        public Builder setCloseDeadline(int milliseconds)
+        {
+            this.closeDeadlineMs = milliseconds;
+            return this;
+        }
+
+        /*
+         * Write the datalog to this stream instead of a file. For off-robot
+         * benchmarks and tests (see the Tools folder), e.g. to measure
+         * formatting cost alone with a stream that discards everything.
+         */
+        Builder setOutputStream(OutputStream outputStream)
+        {
+            this.outputStream = outputStream;
+            return this;
+        }
+
+        String filepath(String suffix)
+        {
+            return new File(directory, filename + suffix + DATALOG_EXTENSION).getPath();
+        }
+
+        public Datalogger build()
+        {
+            if (filename == null) throw new RuntimeException("Filename must not be null!");
+            if (directory == null) throw new RuntimeException("Directory must not be null!");
+            if (filename.endsWith(".csv")) filename = filename.replace(".csv", "");
+            if (!annotatedFields.isEmpty())
+            {
+                LoggableField[] given = fields != null ? fields : new LoggableField[0];
+                LoggableField[] tmp = new LoggableField[given.length+annotatedFields.size()];
+                System.arraycopy(given, 0, tmp, 0, given.length);
+                for (int i = 0; i < annotatedFields.size(); i++)
+                {
+                    tmp[given.length+i] = annotatedFields.get(i);
+                }
+                fields = tmp;
+                annotatedFields.clear();
+            }
+
+            if (fields == null) throw new RuntimeException("Fields must not be null!");
+            if (fields.length == 0) throw new RuntimeException("Fields must be non-zero length!");
+            if (autoTimestamp == null) throw new RuntimeException("AutoTimestamp must not be null!");
+            if (startTrigger == null && (stopTrigger != null || triggerTimeoutMs > 0)) throw new RuntimeException("Stop trigger and timeout need a start trigger!");
+            if (preTriggerLines < 0) throw new RuntimeException("PreTriggerLines must not be negative!");
+            if (asyncQueueLines < 0) throw new RuntimeException("Async queue length must not be negative!");
+            if (closeDeadlineMs < 0) throw new RuntimeException("Close deadline must not be negative!");
+            if (previewLines < 0) throw new RuntimeException("Preview lines must not be negative!");
+            if (liveTailPort > 65535) throw new RuntimeException("Live tail port must be 0 to 65535!");
+            if (liveTailEveryNthLine < 1) throw new RuntimeException("Live tail must send at least every Nth line, N >= 1!");
+            if (retention != null) retention.validate();
+
+            if (profiler != null)
+            {
+                LoggableField[] sections = profiler.getFields();
+                LoggableField[] tmp = new LoggableField[fields.length+sections.length];
+                System.arraycopy(fields, 0, tmp, 0, fields.length);
+                System.arraycopy(sections, 0, tmp, fields.length, sections.length);
+                fields = tmp;
+            }
+
+            if (!derivedFields.isEmpty())
+            {
+                LoggableField[] tmp = new LoggableField[fields.length+derivedFields.size()];
+                System.arraycopy(fields, 0, tmp, 0, fields.length);
+                for (int i = 0; i < derivedFields.size(); i++)
+                {
+                    tmp[fields.length+i] = derivedFields.get(i);
+                }
+                fields = tmp;
+            }
+
+            if (autoTimestamp == AutoTimestamp.DECIMAL_SECONDS)
+            {
+                LoggableField[] tmp = new LoggableField[fields.length+1];
+                tmp[0] = new TimestampField("Timestamp");
+                System.arraycopy(fields, 0, tmp, 1, fields.length);
+                fields = tmp;
+            }
+
+            try
+            {
+                DatalogMetrics metrics = new DatalogMetrics(asyncQueueLines);
+                ArrayList<Sink> allSinks = new ArrayList<>();
+
+                if (outputStream != null)
+                {
+                    allSinks.add(new BufferedCsvWriter(outputStream));
+                }
+                else
+                {
+                    String filepath = filepath("");
+                    awaitPendingClose(filepath);
+
+                    synchronized (pendingCloses)
+                    {
+                        recoveredDatalogs = DatalogRecovery.recoverDirectory(directory, DATALOG_EXTENSION, openFilepaths);
+                        allSinks.add(new BufferedCsvWriter(filepath,
+                                new File(directory, filename + DatalogRecovery.INDEX_EXTENSION).getPath()));
+                        openFilepaths.add(filepath);
+
+                        if (previewLines > 0)
+                        {
+                            String previewFilepath = filepath(DatalogPreview.SUFFIX);
+                            allSinks.add(new DatalogPreview(previewFilepath, previewLines));
+                            openFilepaths.add(previewFilepath);
+                        }
+
+                        if (retention != null)
+                        {
+                            DatalogRetention.schedule(directory, DATALOG_EXTENSION, retention, new HashSet<>(openFilepaths));
+                        }
+                    }
+                }
+
+                liveTail = null;
+                if (liveTailPort >= 0)
+                {
+                    // Without its port, the datalog is still written; getLiveTail() returns null.
+                    try
+                    {
+                        liveTail = new DatalogLiveTail(liveTailPort, liveTailEveryNthLine);
+                        allSinks.add(liveTail);
+                    }
+                    catch (IOException e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+
+                allSinks.addAll(sinks);
+                LineFanOut lineFanOut = new LineFanOut(allSinks.toArray(new Sink[0]), metrics);
+
+                return new Datalogger(this, lineFanOut, metrics);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                throw new RuntimeException("Unable to create output file handle :(");
+            }
+        }
+    }
+
+    /*
+     * Formats the current values of a line. A single virtual writeToBuffer()
+     * call for every column would see many field classes and could not be
+     * inlined by the JIT; instead, build() sorts the columns by exact class
+     * once, and each kind is called through a typed array, so every call site
+     * here sees only one class. Any other class (derived fields, profiler
+     * sections, a user's own LoggableField or GenericField subclass) is called
+     * as before. Output is identical to calling writeToBuffer() on each field.
+     */
+    private static class LineSerializer
+    {
+        private static final byte OTHER = 0;
+        private static final byte GENERIC = 1;
+        private static final byte TIMESTAMP = 2;
+        private static final byte ANNOTATED = 3;
+
+        private final byte[] kinds;
+        private final LoggableField[] fields;
+        private final GenericField[] genericFields;
+        private final TimestampField[] timestampFields;
+        private final AnnotatedField[] annotatedFields;
+
+        public LineSerializer(LoggableField[] fields)
+        {
+            this.fields = fields;
+            kinds = new byte[fields.length];
+            genericFields = new GenericField[fields.length];
+            timestampFields = new TimestampField[fields.length];
+            annotatedFields = new AnnotatedField[fields.length];
+
+            for (int i = 0; i < fields.length; i++)
+            {
+                Class<?> cls = fields[i].getClass();
+
+                if (cls == GenericField.class)
+                {
+                    kinds[i] = GENERIC;
+                    genericFields[i] = (GenericField) fields[i];
+                }
+                else if (cls == TimestampField.class)
+                {
+                    kinds[i] = TIMESTAMP;
+                    timestampFields[i] = (TimestampField) fields[i];
+                }
+                else if (cls == AnnotatedField.class)
+                {
+                    kinds[i] = ANNOTATED;
+                    annotatedFields[i] = (AnnotatedField) fields[i];
+                }
+                else
+                {
+                    kinds[i] = OTHER;
+                }
+            }
+        }
+
+        public void write(StringBuilder out)
+        {
+            int last = kinds.length - 1;
+
+            for (int i = 0; i <= last; i++)
+            {
+                switch (kinds[i])
+                {
+                    case GENERIC:   genericFields[i].writeToBuffer(out); break;
+                    case TIMESTAMP: timestampFields[i].writeToBuffer(out); break;
+                    case ANNOTATED: annotatedFields[i].writeToBuffer(out); break;
+                    default:        fields[i].writeToBuffer(out);
+                }
+
+                if (i < last)
+                {
+                    out.append(',');
+                }
+            }
+        }
+    }
+
+    /*
+     * A destination for a datalog's lines, in addition to the file: for
+     * example a DatalogMemoryRing of recent lines, or a user's own. Give
+     * sinks to the Builder with addSink().
+     *
+     * Each line is formatted and encoded once, into a Line; every sink gets
+     * the same Line, in order, on the thread that writes the datalog (the
+     * OpMode thread, or the writer thread with setAsyncWrites()). A sink
+     * must not change the Line. It is reused once writeLine() returns, unless
+     * the sink calls retain() to keep it, and release() when done with it.
+     */
+    public interface Sink
+    {
+        void writeLine(Line line) throws IOException;
+
+        // Called after every few kilobytes of lines, and before close().
+        void flush() throws IOException;
+
+        // Called once, when the datalog is closed.
+        void close() throws IOException;
+    }
+
+    /*
+     * One line of the datalog, encoded as UTF-8 with its end of line, shared
+     * by every sink. Lines are pooled: one is reused as soon as everything
+     * that retain()ed it has release()d it, so logging doesn't allocate.
+     */
+    public static final class Line
+    {
+        private static final int POOL_SIZE = 64;
+        private static final Line[] pool = new Line[POOL_SIZE];
+        private static int pooled;
+
+        private byte[] bytes = new byte[256];
+        private int length;
+        private boolean header;
+        private final AtomicInteger refCount = new AtomicInteger();
+
+        private Line() {}
+
+        // Returns a Line with one reference, from the pool if one is free.
+        static Line obtain()
+        {
+            Line line = null;
+            synchronized (pool)
+            {
+                if (pooled > 0)
+                {
+                    line = pool[--pooled];
+                    pool[pooled] = null;
+                }
+            }
+            if (line == null)
+            {
+                line = new Line();
+            }
+            line.refCount.set(1);
+            return line;
+        }
+
+        // The encoded line, in bytes 0 to getLength()-1. Don't change it.
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        // Length in bytes, including the end of line.
+        public int getLength()
+        {
+            return length;
+        }
+
+        // True for a header line (the first line, and any written when columns are added).
+        public boolean isHeader()
+        {
+            return header;
+        }
+
+        // Keeps this line after writeLine() returns; call release() when done with it.
+        public Line retain()
+        {
+            refCount.incrementAndGet();
+            return this;
+        }
+
+        public void release()
+        {
+            int count = refCount.decrementAndGet();
+            if (count < 0) throw new RuntimeException("Line released more often than retained!");
+            if (count > 0)
+            {
+                return;
+            }
+
+            synchronized (pool)
+            {
+                if (pooled < POOL_SIZE)
+                {
+                    pool[pooled++] = this;
+                }
+            }
+        }
+
+        // The line as text, without the end of line. Allocates; for occasional use.
+        @Override
+        public String toString()
+        {
+            return new String(bytes, 0, Math.max(0, length - 1), StandardCharsets.UTF_8);
+        }
+
+        // Encodes the line as UTF-8, plus '\n'.
+        void encode(CharSequence line, boolean header)
+        {
+            int size = line.length();
+            if (bytes.length < size * 3 + 1)
+            {
+                bytes = new byte[size * 3 + size / 2 + 16];
+            }
+
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                char c = line.charAt(i);
+
+                if (c < 0x80)
+                {
+                    bytes[count++] = (byte) c;
+                }
+                else if (c < 0x800)
+                {
+                    bytes[count++] = (byte) (0xC0 | (c >> 6));
+                    bytes[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(line.charAt(i + 1)))
+                {
+                    int codePoint = Character.toCodePoint(c, line.charAt(++i));
+                    bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else
+                {
+                    bytes[count++] = (byte) (0xE0 | (c >> 12));
+                    bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            bytes[count++] = '\n';
+
+            this.length = count;
+            this.header = header;
+        }
+    }
+
+    /*
+     * Encodes each line once into a shared Line and passes it to every sink:
+     * the file first, then the preview, live tail and any added with
+     * Builder.addSink(). Every FLUSH_BYTES, all sinks are flushed together.
+     */
+    private static class LineFanOut
+    {
+        private static final int FLUSH_BYTES = 8192;
+
+        private final Sink[] sinks;
+        private final DatalogMetrics metrics;
+        private final Line scratch = Line.obtain();
+        private int bytesSinceFlush;
+
+        public LineFanOut(Sink[] sinks, DatalogMetrics metrics)
+        {
+            this.sinks = sinks;
+            this.metrics = metrics;
+        }
+
+        // header is true for the first line and for those written when columns are added.
+        public void writeLine(CharSequence text, boolean header) throws IOException
+        {
+            Line line = Line.obtain();
+
+            try
+            {
+                line.encode(text, header);
+                for (Sink sink : sinks)
+                {
+                    sink.writeLine(line);
+                }
+                metrics.recordLine(line.length);
+                bytesSinceFlush += line.length;
+            }
+            finally
+            {
+                line.release();
+            }
+
+            if (bytesSinceFlush >= FLUSH_BYTES)
+            {
+                flush();
+            }
+        }
+
+        // Runs the encoding code on a line without passing it to any sink.
+        public void warmUp(CharSequence text)
+        {
+            scratch.encode(text, false);
+        }
+
+        public void flush() throws IOException
+        {
+            if (bytesSinceFlush == 0)
+            {
+                return;
+            }
+
+            long start = System.nanoTime();
+            for (Sink sink : sinks)
+            {
+                sink.flush();
+            }
+            bytesSinceFlush = 0;
+            metrics.recordFlush(System.nanoTime() - start);
+        }
+
+        // Flushes, then closes every sink, even if one fails; the first error is thrown.
+        public void close() throws IOException
+        {
+            IOException error = null;
+
+            try
+            {
+                flush();
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            for (Sink sink : sinks)
+            {
+                try
+                {
+                    sink.close();
+                }
+                catch (IOException e)
+                {
+                    if (error == null)
+                    {
+                        error = e;
+                    }
+                }
+            }
+
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+    }
+
+    /*
+     * The datalog file, or the stream given to the Builder: a buffer flushed
+     * with one write each time the sinks are flushed, so that each flush to
+     * storage can be measured and indexed for crash recovery.
+     */
+    private static class BufferedCsvWriter implements Sink
+    {
+        private static final int BUFFER_SIZE = 16384;
+
+        private OutputStream outputStream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private DatalogRecovery blockIndex;
+
+        public BufferedCsvWriter(String filepath, String indexFilepath) throws IOException
+        {
+            File tmp = new File(filepath);
+            if (!tmp.exists())
+            {
+                tmp.getParentFile().mkdirs();
+            }
+
+            outputStream = new FileOutputStream(filepath, false);
+            blockIndex = new DatalogRecovery(indexFilepath);
+        }
+
+        public BufferedCsvWriter(OutputStream outputStream)
+        {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void writeLine(Line line) throws IOException
+        {
+            int length = line.getLength();
+
+            if (length > BUFFER_SIZE - count)
+            {
+                flush();
+            }
+
+            if (length > BUFFER_SIZE)
+            {
+                // Longer than the whole buffer: write it as it is.
+                outputStream.write(line.getBytes(), 0, length);
+                if (blockIndex != null)
+                {
+                    blockIndex.written(line.getBytes(), length);
+                }
+                return;
+            }
+
+            System.arraycopy(line.getBytes(), 0, buffer, count, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (count == 0)
+            {
+                return;
+            }
+
+            outputStream.write(buffer, 0, count);
+            if (blockIndex != null)
+            {
+                blockIndex.written(buffer, count);
+            }
+            count = 0;
+        }
+
+        // Flushes, then waits until the file's data is on storage, not just in the OS cache.
+        @Override
+        public void close() throws IOException
+        {
+            boolean clean = false;
+
+            try
+            {
+                flush();
+
+                if (outputStream instanceof FileOutputStream)
+                {
+                    ((FileOutputStream) outputStream).getFD().sync();
+                }
+                clean = true;
+            }
+            finally
+            {
+                outputStream.close();
+
+                // The block index is only needed if the datalog didn't close cleanly.
+                if (blockIndex != null)
+                {
+                    blockIndex.close(clean);
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes lines to the file on a background thread. The OpMode thread copies
+     * each formatted line into the next free slot of a fixed ring; the writer
+     * thread is the only reader. One producer and one consumer need no locks,
+     * only the two volatile positions. Neither thread polls: the writer parks
+     * while the ring is empty and enqueue() wakes it when a line arrives, and
+     * a producer waiting for room is woken by the writer as it frees a slot.
+     */
+    private static class AsyncWriter implements Runnable
+    {
+        private final LineFanOut lineFanOut;
+        private final DatalogMetrics metrics;
+        private final StringBuilder[] slots;
+        private final boolean[] headers;
+        private final Thread thread;
+        private volatile long head;
+        private volatile long tail;
+        private volatile boolean closing;
+        private volatile Thread waitingProducer;
+
+        public AsyncWriter(LineFanOut lineFanOut, DatalogMetrics metrics, int capacity)
+        {
+            this.lineFanOut = lineFanOut;
+            this.metrics = metrics;
+
+            slots = new StringBuilder[capacity];
+            headers = new boolean[capacity];
+            for (int i = 0; i < capacity; i++)
+            {
+                slots[i] = new StringBuilder(256);
+            }
+
+            thread = new Thread(this, "Datalogger writer");
+            thread.start();
+        }
+
+        /*
+         * Called from the OpMode thread before START. The writer thread may
+         * still be writing the header from a slot, so first wait until it has
+         * written every queued line: then no slot is in use but ours.
+         */
+        public void ensureCapacity(int lineLength)
+        {
+            awaitHead(tail);
+
+            for (StringBuilder slot : slots)
+            {
+                slot.ensureCapacity(lineLength);
+            }
+        }
+
+        // Same as enqueue(), but waits for space instead of dropping the line.
+        public void enqueueWithoutDrop(CharSequence line, boolean header)
+        {
+            awaitHead(tail - slots.length + 1);
+            enqueue(line, header);
+        }
+
+        /*
+         * Parks the OpMode thread until the writer has written up to the given
+         * line. waitingProducer is set before head is checked, and the writer
+         * reads it after moving head, so a wake-up is never missed.
+         */
+        private void awaitHead(long position)
+        {
+            if (head >= position)
+            {
+                return;
+            }
+
+            waitingProducer = Thread.currentThread();
+            while (head < position)
+            {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+        }
+
+        // Called from the OpMode thread only.
+        public void enqueue(CharSequence line, boolean header)
+        {
+            long t = tail;
+
+            if (t - head >= slots.length)
+            {
+                metrics.recordDroppedLine();
+                return;
+            }
+
+            int index = (int) (t % slots.length);
+            slots[index].setLength(0);
+            slots[index].append(line);
+            headers[index] = header;
+            tail = t + 1;
+
+            // Wake the writer if it had caught up; it checks tail again before parking.
+            long h = head;
+            if (h == t)
+            {
+                LockSupport.unpark(thread);
+            }
+
+            metrics.recordQueueDepth((int) (t + 1 - h));
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                boolean stopping = closing;
+                long h = head;
+
+                if (h == tail)
+                {
+                    if (stopping)
+                    {
+                        return;
+                    }
+
+                    // enqueue() may have set the depth just before this thread caught up.
+                    if (metrics.getQueueDepth() != 0)
+                    {
+                        metrics.updateQueueDepth((int) (tail - h));
+                    }
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                try
+                {
+                    int index = (int) (h % slots.length);
+                    lineFanOut.writeLine(slots[index], headers[index]);
+                }
+                catch (IOException e)
+                {
+                    metrics.recordIoError();
+                    e.printStackTrace();
+                }
+
+                head = h + 1;
+                metrics.updateQueueDepth((int) (tail - h - 1));
+
+                Thread producer = waitingProducer;
+                if (producer != null)
+                {
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+
+        // Writes every queued line, then stops the writer thread.
+        public void close()
+        {
+            closing = true;
+            LockSupport.unpark(thread);
+
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
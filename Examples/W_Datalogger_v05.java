@@ -21,6 +21,27 @@
  
  
  
+ 10/18/2026   Columns can now be declared by name in a DatalogSchema, as
+ suggested under "Future features?" below. Pass the schema to the
+ constructor; the header line is written at once, in schema order. In the
+ loop, set each value with set(handle, value), using the handle from
+ schema.handle(name), or with set(name, value). Values may be set in any
+ order; newLine() writes them in schema order, and leaves blank any column
+ not set since the last line. Use either set() or addField() for data, not
+ both.
+
+ 10/18/2026   finalize() is gone. A finalizer made every instance slower to
+ create and to garbage collect, ran at an unpredictable time, and sometimes
+ never ran before the app exited, losing the end of the datalog. Now the
+ datalog is closed, in this order of preference:
+   - by the OpMode calling closeDataLogger(), or close() (the class is
+     AutoCloseable, so try-with-resources works too)
+   - automatically when the OpMode stops, like the newer Datalogger class
+   - as a last resort, by a background thread after the datalogger object
+     has been garbage collected without being closed
+ java.lang.ref.Cleaner is not available on the Android versions used by
+ FTC devices, so that last step uses a PhantomReference instead.
+
  1/6/2022   This v05 supports downloading the datalog file from OnBot Java,
  rather than file transfer via USB cable or wireless Android Debug Bridge (adb).
  The latter methods can still be used if needed.
@@ -73,24 +94,46 @@ some values (esp sensor values) should see discontinuities.
 
 package org.firstinspires.ftc.teamcode;
 
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerNotifier;
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeManagerImpl;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
 import java.io.File;                    // already used in FTC SDK
 import java.io.Writer;
 import java.io.IOException;
 import java.io.FileWriter;              // subclass of java.io.Writer
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
-public class W_Datalogger_v05 {
+public class W_Datalogger_v05 implements AutoCloseable {
     
     // Declare members.
     private Writer writer;              // contains write() method to store file
     private StringBuffer lineBuffer;    // its methods build each line (row) of data
     private long timeBase;              // time of instantiation (milliseconds)
     private long nsBase;                // time of reset (nanoseconds)    
+    private CloseOnCollect closeOnCollect;  // last-resort close, see below
+    private DatalogSchema schema;       // column names, if declared up front
+    private StringBuilder[] values;     // one value per schema column
+
+    // The SDK holds OpMode listeners by weak reference, so keep this one here.
+    private OpModeNotifications opModeNotifications = new OpModeNotifications();
 
     // This constructor runs once, to initialize an instantiation of the class.
     public W_Datalogger_v05 (String fileName) {
+        this("/sdcard/FIRST/java/src/Datalogs", fileName);
+    }
+
+    // This constructor accepts a different folder, for example when running
+    // the off-robot benchmarks in the Tools folder.
+    W_Datalogger_v05 (String directoryPath, String fileName) {
         
         // Build the path with the filename provided by the calling OpMode.
-        String directoryPath    = "/sdcard/FIRST/java/src/Datalogs";
         String filePath         = directoryPath + "/" + fileName + ".txt";
         
         // src and any subfolder contents appear in OnBot Java (left side).
@@ -106,6 +149,13 @@ public class W_Datalogger_v05 {
         catch (IOException e) {
         }
         
+        // Close the file when the OpMode stops, even if the OpMode forgets to.
+        if (writer != null) {
+            closeOnCollect = new CloseOnCollect(this, writer);
+            OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity())
+                .registerListener(opModeNotifications);
+        }
+        
         timeBase = System.currentTimeMillis();
         nsBase = System.nanoTime();
         addField("Time");               // first/default column label
@@ -114,6 +164,25 @@ public class W_Datalogger_v05 {
     }   // end constructor
 
 
+    // These constructors declare the columns up front with a schema, and
+    // write the first row (labels) immediately.
+    public W_Datalogger_v05 (String fileName, DatalogSchema schema) {
+        this("/sdcard/FIRST/java/src/Datalogs", fileName, schema);
+    }
+
+    W_Datalogger_v05 (String directoryPath, String fileName, DatalogSchema schema) {
+        this(directoryPath, fileName);
+        
+        this.schema = schema;
+        values = new StringBuilder[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new StringBuilder(16);
+            addField(schema.name(i));
+        }
+        firstLine();
+    }
+
+
     // This *private* method is called by the *public* methods firstLine()
     // and newLine().
     private void flushLineBuffer(){
@@ -163,9 +232,76 @@ public class W_Datalogger_v05 {
     // The OpMode calls this *public* method to add timestamps and complete the
     // current line (row) of data.
     public void newLine() {
+        if (schema != null) {
+            appendValues();
+        }
         insertTimestamps();
         flushLineBuffer();
     }
+
+
+    // This *private* method copies the schema values into the line, in
+    // column order, then clears them for the next line.
+    private void appendValues() {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                lineBuffer.append(',');
+            }
+            lineBuffer.append(values[i]);
+            values[i].setLength(0);
+        }
+    }
+
+
+    // These (overloaded) methods set the value of a schema column by handle.
+    // Setting a column twice before newLine() keeps the last value.
+
+    public void set(int handle, String s) {
+        values[handle].setLength(0);
+        values[handle].append(s);
+    }
+
+    public void set(int handle, boolean b) {
+        values[handle].setLength(0);
+        values[handle].append(b ? '1' : '0');
+    }
+
+    public void set(int handle, long l) {
+        values[handle].setLength(0);
+        values[handle].append(l);
+    }
+
+    public void set(int handle, float f) {
+        values[handle].setLength(0);
+        values[handle].append(f);
+    }
+
+    public void set(int handle, double d) {
+        values[handle].setLength(0);
+        values[handle].append(d);
+    }
+
+    // The same, by column name. Slower than by handle, but needs no setup.
+
+    public void set(String name, String s) {
+        set(schema.handle(name), s);
+    }
+
+    public void set(String name, boolean b) {
+        set(schema.handle(name), b);
+    }
+
+    public void set(String name, long l) {
+        set(schema.handle(name), l);
+    }
+
+    public void set(String name, float f) {
+        set(schema.handle(name), f);
+    }
+
+    public void set(String name, double d) {
+        set(schema.handle(name), d);
+    }
     
     
     // These two (overloaded) methods add a text field to the line (row),
@@ -231,21 +367,101 @@ public class W_Datalogger_v05 {
     }
 
 
-    // The OpMode must call this method when finished logging data.
-    public void closeDataLogger() {
+    // The OpMode should call this method when finished logging data.
+    // Calling it again, or after the OpMode stops, does nothing.
+    public synchronized void closeDataLogger() {
+        if (closeOnCollect == null) {
+            return;                     // already closed, or never opened
+        }
+        closeOnCollect.forget();
+        closeOnCollect = null;
+        
         try {
             writer.close();             // close the file
         }
         catch (IOException e) {
         }
+        
+        OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity())
+            .unregisterListener(opModeNotifications);
     }
 
 
-    // This method provides garbage collection and improves exception handling.
+    // Same as closeDataLogger(), for try-with-resources.
     @Override
-    protected void finalize() throws Throwable {
+    public void close() {
         closeDataLogger();
-        super.finalize();
+    }
+
+
+    // The SDK calls this listener when the OpMode stops.
+    private class OpModeNotifications implements OpModeManagerNotifier.Notifications {
+        
+        @Override
+        public void onOpModePreInit(OpMode opMode) {}
+
+        @Override
+        public void onOpModePreStart(OpMode opMode) {}
+
+        @Override
+        public void onOpModePostStop(OpMode opMode) {
+            closeDataLogger();
+        }
+    }
+
+
+    // Last resort: if a datalogger is garbage collected without being closed,
+    // this closes its file from a background thread. It holds the Writer, not
+    // the datalogger, so it doesn't keep the datalogger from being collected.
+    private static class CloseOnCollect extends PhantomReference<W_Datalogger_v05> {
+        
+        private static final ReferenceQueue<W_Datalogger_v05> queue = new ReferenceQueue<>();
+        
+        // Keeps each CloseOnCollect reachable until its datalogger is closed.
+        private static final Set<CloseOnCollect> pending =
+            Collections.synchronizedSet(new HashSet<CloseOnCollect>());
+        
+        private static Thread closer;
+        
+        private final Writer writer;
+
+        CloseOnCollect(W_Datalogger_v05 datalogger, Writer writer) {
+            super(datalogger, queue);
+            this.writer = writer;
+            pending.add(this);
+            startCloser();
+        }
+
+        // Called when the datalogger was closed normally.
+        void forget() {
+            pending.remove(this);
+            clear();
+        }
+
+        private static synchronized void startCloser() {
+            if (closer != null) {
+                return;
+            }
+            closer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            CloseOnCollect ref = (CloseOnCollect) queue.remove();
+                            pending.remove(ref);
+                            ref.writer.close();
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                        catch (IOException e) {
+                        }
+                    }
+                }
+            }, "W_Datalogger closer");
+            closer.setDaemon(true);
+            closer.start();
+        }
     }
     
 }   // end class
@@ -0,0 +1,488 @@
+/*
+Summarizes many datalogs at once, for example every match of an event, on
+all cores of the analysis machine.
+
+For each datalog it finds the same statistics as the summary Datalogger
+writes on the robot (count, mean, standard deviation, min, max and
+percentiles of every numeric column) plus:
+  - Loop ms: the time between rows, from the Timestamp or Time column
+    (W_Datalogger_v05's own "d ms" column is summarized too)
+  - battery sag: the highest battery voltage minus the lowest, from the
+    first column with "battery" in its name (or --battery <column>)
+Then it combines all of them into fleet statistics.
+
+Each datalog is one fork/join task; one larger than the chunk size is
+split in two, and again, until each piece is smaller, and the pieces are
+read in parallel (DatalogReader.open(path, start, end)). The statistics of
+the pieces are merged with DatalogStats.FieldStats.merge(), which is exact
+for count, mean, variance, min and max; percentiles come from the merged
+quantile sketches, within about 1%. Loop ms leaves out the one gap at each
+chunk boundary.
+
+Usage:
+
+    java ... DatalogAnalysis [options] <datalog.txt or folder>...
+
+A folder means every datalog in it (not _summary, _columns or _preview files).
+
+Options:
+  -o <file>            also write every statistic, per datalog and for all
+                       of them, as CSV
+  --battery <column>   battery voltage column
+  --threads <n>        parallelism (default: number of cores)
+  --chunk <MB>         split datalogs larger than this (default 16)
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+public class DatalogAnalysis
+{
+    static final String LOOP_MS = "Loop ms";
+
+    private long chunkBytes = 16L * 1024 * 1024;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String batteryColumn;
+
+    public DatalogAnalysis setChunkBytes(long chunkBytes)
+    {
+        this.chunkBytes = chunkBytes;
+        return this;
+    }
+
+    public DatalogAnalysis setThreads(int threads)
+    {
+        this.threads = threads;
+        return this;
+    }
+
+    // The battery voltage column; by default, the first with "battery" in its name.
+    public DatalogAnalysis setBatteryColumn(String batteryColumn)
+    {
+        this.batteryColumn = batteryColumn;
+        return this;
+    }
+
+    /*
+     * The statistics of one datalog, or of a piece of one. Columns are kept by
+     * position, since a piece may see cells of columns whose header is in
+     * another piece; columns are only ever appended, so positions match.
+     */
+    public static class Summary
+    {
+        public final String name;
+        private final ArrayList<String> columnNames = new ArrayList<>();
+        private final ArrayList<DatalogStats.FieldStats> columns = new ArrayList<>();
+        private DatalogStats.FieldStats loopMs = new DatalogStats.FieldStats(LOOP_MS);
+        private long rows;
+        private double firstTime = Double.POSITIVE_INFINITY;
+        private double lastTime = Double.NEGATIVE_INFINITY;
+        private String batteryColumn;
+
+        Summary(String name)
+        {
+            this.name = name;
+        }
+
+        public long getRows()
+        {
+            return rows;
+        }
+
+        // Seconds from the first row's timestamp to the last's.
+        public double getDuration()
+        {
+            return rows > 0 ? lastTime - firstTime : Double.NaN;
+        }
+
+        public DatalogStats.FieldStats getLoopMs()
+        {
+            return loopMs;
+        }
+
+        public DatalogStats.FieldStats getBattery()
+        {
+            int column = batteryColumn == null ? -1 : columnNames.indexOf(batteryColumn);
+            return column < 0 ? null : columns.get(column);
+        }
+
+        // Highest battery voltage minus lowest, or NaN if there is no battery column.
+        public double getBatterySag()
+        {
+            DatalogStats.FieldStats battery = getBattery();
+            return battery == null ? Double.NaN : battery.getMax() - battery.getMin();
+        }
+
+        public DatalogStats.FieldStats getFieldStats(String name)
+        {
+            int column = columnNames.indexOf(name);
+            return column < 0 ? null : columns.get(column);
+        }
+
+        // Loop ms first, then each column that held numbers.
+        public ArrayList<DatalogStats.FieldStats> getFieldStats()
+        {
+            ArrayList<DatalogStats.FieldStats> result = new ArrayList<>();
+            result.add(loopMs);
+            for (DatalogStats.FieldStats stats : columns)
+            {
+                if (stats.getCount() > 0)
+                {
+                    result.add(stats);
+                }
+            }
+            return result;
+        }
+
+        private DatalogStats.FieldStats column(int index)
+        {
+            while (columns.size() <= index)
+            {
+                int c = columns.size();
+                columns.add(new DatalogStats.FieldStats(c < columnNames.size() ? columnNames.get(c) : "Column " + (c + 1)));
+            }
+            return columns.get(index);
+        }
+
+        // Adds the other piece, which comes later in the same datalog.
+        void mergePiece(Summary later)
+        {
+            for (int c = columnNames.size(); c < later.columnNames.size(); c++)
+            {
+                columnNames.add(later.columnNames.get(c));
+            }
+            for (int c = 0; c < later.columns.size(); c++)
+            {
+                column(c).merge(later.columns.get(c));
+            }
+            loopMs.merge(later.loopMs);
+            rows += later.rows;
+            firstTime = Math.min(firstTime, later.firstTime);
+            lastTime = Math.max(lastTime, later.lastTime);
+        }
+
+        // Replaces placeholder names, once every piece's header has been seen.
+        void nameColumns(String batteryColumn)
+        {
+            for (int c = 0; c < columns.size(); c++)
+            {
+                String columnName = c < columnNames.size() ? columnNames.get(c) : "Column " + (c + 1);
+                if (!columns.get(c).name.equals(columnName))
+                {
+                    DatalogStats.FieldStats named = new DatalogStats.FieldStats(columnName);
+                    named.merge(columns.get(c));
+                    columns.set(c, named);
+                }
+            }
+
+            this.batteryColumn = batteryColumn;
+            if (batteryColumn == null)
+            {
+                for (String columnName : columnNames)
+                {
+                    if (columnName.toLowerCase().contains("battery"))
+                    {
+                        this.batteryColumn = columnName;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Adds a whole datalog's statistics, by column name, for fleet statistics.
+        void mergeByName(Summary other)
+        {
+            for (int c = 0; c < other.columns.size(); c++)
+            {
+                DatalogStats.FieldStats stats = other.columns.get(c);
+                int column = columnNames.indexOf(stats.name);
+                if (column < 0)
+                {
+                    column = columnNames.size();
+                    columnNames.add(stats.name);
+                }
+                column(column).merge(stats);
+            }
+            loopMs.merge(other.loopMs);
+            rows += other.rows;
+            if (other.rows > 0)
+            {
+                lastTime = (Double.isInfinite(lastTime) ? 0 : lastTime) + other.getDuration();
+                firstTime = 0;
+            }
+            if (batteryColumn == null)
+            {
+                batteryColumn = other.batteryColumn;
+            }
+        }
+    }
+
+    // Reads bytes start to end of one datalog, splitting the range while it is too large.
+    private class PieceTask extends RecursiveTask<Summary>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final long start;
+        private final long end;
+
+        PieceTask(File file, long start, long end)
+        {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Summary compute()
+        {
+            try
+            {
+                if (end - start <= chunkBytes)
+                {
+                    return read();
+                }
+
+                long middle = start + (end - start) / 2;
+                PieceTask first = new PieceTask(file, start, middle);
+                first.fork();
+                Summary second = new PieceTask(file, middle, end).compute();
+                Summary summary = first.join();
+                summary.mergePiece(second);
+                return summary;
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error reading " + file, e);
+            }
+        }
+
+        private Summary read() throws IOException
+        {
+            Summary summary = new Summary(file.getName());
+            DatalogReader reader = DatalogReader.open(file.getPath(), start, end);
+
+            try
+            {
+                double lastTime = Double.NaN;
+
+                while (reader.next())
+                {
+                    int cells = reader.getCellCount();
+                    // The time column has no statistics of its own; Loop ms stands in for it.
+                    for (int c = 0; c < cells; c++)
+                    {
+                        if (c != reader.getTimeColumn())
+                        {
+                            summary.column(c).add(reader.getDouble(c));
+                        }
+                    }
+
+                    double time = reader.getTimeSeconds();
+                    if (!Double.isNaN(time))
+                    {
+                        if (time >= lastTime)
+                        {
+                            summary.loopMs.add((time - lastTime) * 1000);
+                        }
+                        lastTime = time;
+                        summary.firstTime = Math.min(summary.firstTime, time);
+                        summary.lastTime = Math.max(summary.lastTime, time);
+                    }
+                    summary.rows++;
+                }
+
+                for (int c = 0; c < reader.getColumnCount(); c++)
+                {
+                    summary.columnNames.add(reader.getColumnName(c));
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+            return summary;
+        }
+    }
+
+    /*
+     * Summarizes each datalog, in parallel, then all of them together. The
+     * fleet summary is the last element of the list, named "All".
+     */
+    public ArrayList<Summary> analyze(ArrayList<File> files)
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try
+        {
+            ArrayList<ForkJoinTask<Summary>> tasks = new ArrayList<>();
+            for (File file : files)
+            {
+                tasks.add(pool.submit(new PieceTask(file, 0, file.length())));
+            }
+
+            ArrayList<Summary> summaries = new ArrayList<>();
+            Summary fleet = new Summary("All");
+
+            for (ForkJoinTask<Summary> task : tasks)
+            {
+                Summary summary = task.join();
+                summary.nameColumns(batteryColumn);
+                summaries.add(summary);
+                fleet.mergeByName(summary);
+            }
+
+            fleet.nameColumns(batteryColumn != null ? batteryColumn : fleet.batteryColumn);
+            summaries.add(fleet);
+            return summaries;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // Same columns as the _summary.txt file Datalogger writes, with the datalog's name first.
+    public static void writeCsv(ArrayList<Summary> summaries, String filepath) throws IOException
+    {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(filepath, false));
+
+        try
+        {
+            writer.write("Datalog,Field,Count,Mean,StdDev,Min,Max,P50,P95,P99,P99.9");
+            writer.newLine();
+
+            for (Summary summary : summaries)
+            {
+                for (DatalogStats.FieldStats stats : summary.getFieldStats())
+                {
+                    writer.write(DatalogStats.csvRow(summary.name + "," + stats.name, stats.getCount(),
+                            stats.getMean(), stats.getStdDev(), stats.getMin(), stats.getMax(),
+                            stats.getQuantile(0.50), stats.getQuantile(0.95),
+                            stats.getQuantile(0.99), stats.getQuantile(0.999)));
+                    writer.newLine();
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    // The datalogs named, and those in any folders named.
+    static ArrayList<File> datalogFiles(ArrayList<String> paths)
+    {
+        ArrayList<File> files = new ArrayList<>();
+
+        for (String path : paths)
+        {
+            File file = new File(path);
+            if (!file.isDirectory())
+            {
+                files.add(file);
+                continue;
+            }
+
+            File[] children = file.listFiles();
+            if (children == null)
+            {
+                continue;
+            }
+            Arrays.sort(children);
+            for (File child : children)
+            {
+                String name = child.getName();
+                if (child.isFile() && name.endsWith(".txt")
+                        && !name.endsWith("_summary.txt") && !name.endsWith("_columns.txt")
+                        && !name.endsWith("_preview.txt"))
+                {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        DatalogAnalysis analysis = new DatalogAnalysis();
+        ArrayList<String> paths = new ArrayList<>();
+        String output = null;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            boolean hasValue = i + 1 < args.length;
+
+            if (args[i].equals("-o") && hasValue)
+            {
+                output = args[++i];
+            }
+            else if (args[i].equals("--battery") && hasValue)
+            {
+                analysis.setBatteryColumn(args[++i]);
+            }
+            else if (args[i].equals("--threads") && hasValue)
+            {
+                analysis.setThreads(Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("--chunk") && hasValue)
+            {
+                analysis.setChunkBytes((long) (Double.parseDouble(args[++i]) * 1024 * 1024));
+            }
+            else
+            {
+                paths.add(args[i]);
+            }
+        }
+
+        ArrayList<File> files = datalogFiles(paths);
+        if (files.isEmpty())
+        {
+            System.out.println("Usage: DatalogAnalysis [-o <summary.txt>] [--battery <column>] [--threads <n>] "
+                    + "[--chunk <MB>] <datalog.txt or folder>...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        ArrayList<Summary> summaries = analysis.analyze(files);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long bytes = 0;
+        for (File file : files)
+        {
+            bytes += file.length();
+        }
+
+        System.out.printf("%-28s %9s %8s %9s %9s %9s %9s %9s %9s%n",
+                "Datalog", "Rows", "Seconds", "Loop p50", "Loop p95", "Loop p99", "Batt min", "Batt max", "Sag V");
+        for (Summary summary : summaries)
+        {
+            DatalogStats.FieldStats loop = summary.getLoopMs();
+            DatalogStats.FieldStats battery = summary.getBattery();
+            System.out.printf("%-28s %9d %8.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    summary.name, summary.getRows(), summary.getDuration(),
+                    loop.getQuantile(0.50), loop.getQuantile(0.95), loop.getQuantile(0.99),
+                    battery == null ? Double.NaN : battery.getMin(),
+                    battery == null ? Double.NaN : battery.getMax(),
+                    summary.getBatterySag());
+        }
+        System.out.printf("%d datalogs, %.1f MB in %.3f s (%.0f MB/s) on %d threads%n",
+                files.size(), bytes / 1e6, seconds, bytes / 1e6 / seconds, analysis.threads);
+
+        if (output != null)
+        {
+            writeCsv(summaries, output);
+        }
+    }
+}
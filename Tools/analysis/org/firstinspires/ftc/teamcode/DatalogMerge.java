@@ -0,0 +1,398 @@
+/*
+Merges several datalogs into one, in time order.
+
+When an OpMode logs the drivetrain, vision and lift to separate datalogs,
+this lines them up on their timestamp columns (Timestamp or Time), as one
+table:
+
+    Timestamp,drive.Yaw,drive.Battery,vision.Tags,lift.Height
+    000.020,12.5,12.81,,
+    000.021,12.5,12.81,2,
+    000.034,12.6,12.80,2,88
+
+Each input column becomes "<file name>.<column>". Each row of any input
+becomes one row of the output; rows of different inputs with the same
+timestamp share a row. The other inputs' cells are either their last
+values (Fill.HOLD, sample-and-hold, the default) or blank (Fill.BLANK).
+Cells are copied exactly as written, so no precision is lost.
+
+Merging is a k-way merge: a heap holds the next row of each input, and only
+those rows are in memory, so memory does not grow with the size of the
+datalogs. Inputs are read with DatalogReader.
+
+Both loggers time each datalog from its own start, so datalogs started
+together line up as they are. For one started later, give its start time
+relative to the others as an offset in seconds.
+
+A column added to an input while it was running (Datalogger.addField())
+is added to the end of the output's columns, with a new header line, the
+same way Datalogger writes it.
+
+    new DatalogMerge()
+            .addInput("drive.txt")
+            .addInput("vision.txt", 0.250)
+            .setFill(DatalogMerge.Fill.BLANK)
+            .write("merged.txt");
+
+or from the command line:
+
+    java ... DatalogMerge [--blank] -o merged.txt drive.txt [--offset 0.25] vision.txt ...
+
+where --offset applies to the input after it.
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+public class DatalogMerge
+{
+    public enum Fill
+    {
+        HOLD,
+        BLANK
+    }
+
+    private final ArrayList<String> inputs = new ArrayList<>();
+    private final ArrayList<Double> offsets = new ArrayList<>();
+    private Fill fill = Fill.HOLD;
+
+    public DatalogMerge addInput(String filepath)
+    {
+        return addInput(filepath, 0);
+    }
+
+    // offsetSeconds is added to every timestamp of this input.
+    public DatalogMerge addInput(String filepath, double offsetSeconds)
+    {
+        inputs.add(filepath);
+        offsets.add(offsetSeconds);
+        return this;
+    }
+
+    public DatalogMerge setFill(Fill fill)
+    {
+        this.fill = fill;
+        return this;
+    }
+
+    /*
+     * One input: its reader, positioned on its next row, and where its
+     * columns go in the output.
+     */
+    private static class Source
+    {
+        final int index;
+        final String prefix;
+        final DatalogReader reader;
+        final double offset;
+        int[] outputColumns = new int[0];
+        long timeMs;
+
+        Source(int index, String prefix, DatalogReader reader, double offset)
+        {
+            this.index = index;
+            this.prefix = prefix;
+            this.reader = reader;
+            this.offset = offset;
+        }
+
+        /*
+         * Moves to the next row; a row with no readable time keeps the last one.
+         * Both loggers write whole milliseconds, so rows are merged on those.
+         */
+        boolean next() throws IOException
+        {
+            if (!reader.next())
+            {
+                return false;
+            }
+            double t = reader.getTimeSeconds();
+            if (!Double.isNaN(t))
+            {
+                timeMs = Math.round((t + offset) * 1000);
+            }
+            return true;
+        }
+    }
+
+    // Merges the inputs into outputPath; returns the number of rows written.
+    public long write(String outputPath) throws IOException
+    {
+        if (inputs.isEmpty()) throw new RuntimeException("Merge needs at least one input!");
+
+        ArrayList<Source> sources = new ArrayList<>();
+        PriorityQueue<Source> heap = new PriorityQueue<>(inputs.size(), new Comparator<Source>()
+        {
+            @Override
+            public int compare(Source a, Source b)
+            {
+                int byTime = Long.compare(a.timeMs, b.timeMs);
+                return byTime != 0 ? byTime : Integer.compare(a.index, b.index);
+            }
+        });
+
+        OutputStream out = null;
+
+        try
+        {
+            HashSet<String> prefixes = new HashSet<>();
+            for (int i = 0; i < inputs.size(); i++)
+            {
+                DatalogReader reader = DatalogReader.open(inputs.get(i));
+                Source source = new Source(i, prefix(inputs.get(i), prefixes), reader, offsets.get(i));
+                sources.add(source);
+
+                if (reader.getTimeColumn() < 0)
+                {
+                    throw new IOException("No Timestamp or Time column in " + inputs.get(i));
+                }
+                if (source.next())
+                {
+                    heap.add(source);
+                }
+            }
+
+            out = new BufferedOutputStream(new FileOutputStream(outputPath), 1 << 16);
+            return merge(sources, heap, out);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                out.close();
+            }
+            for (Source source : sources)
+            {
+                source.reader.close();
+            }
+        }
+    }
+
+    private long merge(ArrayList<Source> sources, PriorityQueue<Source> heap, OutputStream out) throws IOException
+    {
+        ArrayList<String> columnNames = new ArrayList<>();
+        columnNames.add("Timestamp");
+        for (Source source : sources)
+        {
+            addColumns(source, columnNames);
+        }
+        boolean headerChanged = true;
+
+        // The output row: each cell's bytes, and which inputs are in it.
+        byte[][] cells = new byte[columnNames.size()][];
+        int[] lengths = new int[columnNames.size()];
+        boolean[] inRow = new boolean[sources.size()];
+        byte[] line = new byte[1024];
+        long rows = 0;
+
+        while (!heap.isEmpty())
+        {
+            long timeMs = heap.peek().timeMs;
+            Arrays.fill(inRow, false);
+
+            // Take every input's row at this time; a second row of the same input starts a new output row.
+            while (!heap.isEmpty() && heap.peek().timeMs == timeMs && !inRow[heap.peek().index])
+            {
+                Source source = heap.poll();
+                inRow[source.index] = true;
+
+                DatalogReader reader = source.reader;
+                if (source.outputColumns.length < reader.getColumnCount())
+                {
+                    addColumns(source, columnNames);
+                    if (cells.length < columnNames.size())
+                    {
+                        cells = Arrays.copyOf(cells, columnNames.size());
+                        lengths = Arrays.copyOf(lengths, columnNames.size());
+                    }
+                    headerChanged = true;
+                }
+
+                for (int c = 0; c < source.outputColumns.length; c++)
+                {
+                    int column = source.outputColumns[c];
+                    if (column < 0)
+                    {
+                        continue;
+                    }
+                    int length = reader.getLength(c);
+                    if (cells[column] == null || cells[column].length < length)
+                    {
+                        cells[column] = new byte[Math.max(16, length * 2)];
+                    }
+                    lengths[column] = reader.getBytes(c, cells[column], 0);
+                }
+
+                if (source.next())
+                {
+                    heap.add(source);
+                }
+            }
+
+            if (headerChanged)
+            {
+                writeHeader(columnNames, out);
+                headerChanged = false;
+            }
+
+            // Timestamp, then every other column.
+            int n = formatTime(timeMs, line);
+            for (int column = 1; column < columnNames.size(); column++)
+            {
+                if (n + lengths[column] + 2 > line.length)
+                {
+                    line = Arrays.copyOf(line, (n + lengths[column] + 2) * 2);
+                }
+                line[n++] = ',';
+                if (lengths[column] > 0)
+                {
+                    System.arraycopy(cells[column], 0, line, n, lengths[column]);
+                    n += lengths[column];
+                }
+            }
+            line[n++] = '\n';
+            out.write(line, 0, n);
+            rows++;
+
+            if (fill == Fill.BLANK)
+            {
+                Arrays.fill(lengths, 0);
+            }
+        }
+
+        return rows;
+    }
+
+    // Gives the source's new columns places at the end of the output; its time column has none.
+    private static void addColumns(Source source, ArrayList<String> columnNames)
+    {
+        DatalogReader reader = source.reader;
+        int oldCount = source.outputColumns.length;
+        source.outputColumns = Arrays.copyOf(source.outputColumns, reader.getColumnCount());
+
+        for (int c = oldCount; c < reader.getColumnCount(); c++)
+        {
+            if (c == reader.getTimeColumn())
+            {
+                source.outputColumns[c] = -1;
+            }
+            else
+            {
+                source.outputColumns[c] = columnNames.size();
+                columnNames.add(source.prefix + "." + reader.getColumnName(c));
+            }
+        }
+    }
+
+    private static void writeHeader(ArrayList<String> columnNames, OutputStream out) throws IOException
+    {
+        StringBuilder header = new StringBuilder();
+        for (int column = 0; column < columnNames.size(); column++)
+        {
+            if (column > 0)
+            {
+                header.append(',');
+            }
+            header.append(columnNames.get(column));
+        }
+        header.append('\n');
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Writes seconds with three decimals, like Datalogger's timestamp; returns the length.
+    private static int formatTime(long ms, byte[] line)
+    {
+        int n = 0;
+        if (ms < 0)
+        {
+            line[n++] = '-';
+            ms = -ms;
+        }
+
+        String whole = Long.toString(ms / 1000);
+        for (int i = whole.length(); i < 3; i++)
+        {
+            line[n++] = '0';
+        }
+        for (int i = 0; i < whole.length(); i++)
+        {
+            line[n++] = (byte) whole.charAt(i);
+        }
+
+        int fraction = (int) (ms % 1000);
+        line[n++] = '.';
+        line[n++] = (byte) ('0' + fraction / 100);
+        line[n++] = (byte) ('0' + fraction / 10 % 10);
+        line[n++] = (byte) ('0' + fraction % 10);
+        return n;
+    }
+
+    // The file name without its extension, made unique if two inputs share a name.
+    private static String prefix(String filepath, HashSet<String> used)
+    {
+        String name = new File(filepath).getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+        {
+            name = name.substring(0, dot);
+        }
+
+        String prefix = name;
+        for (int i = 2; !used.add(prefix); i++)
+        {
+            prefix = name + "_" + i;
+        }
+        return prefix;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        DatalogMerge merge = new DatalogMerge();
+        String output = null;
+        double offset = 0;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--blank"))
+            {
+                merge.setFill(Fill.BLANK);
+            }
+            else if (args[i].equals("-o") && i + 1 < args.length)
+            {
+                output = args[++i];
+            }
+            else if (args[i].equals("--offset") && i + 1 < args.length)
+            {
+                offset = Double.parseDouble(args[++i]);
+            }
+            else
+            {
+                merge.addInput(args[i], offset);
+                offset = 0;
+            }
+        }
+
+        if (output == null || merge.inputs.isEmpty())
+        {
+            System.out.println("Usage: DatalogMerge [--blank] -o <merged.txt> [--offset <seconds>] <datalog.txt>...");
+            return;
+        }
+
+        long start = System.nanoTime();
+        long rows = merge.write(output);
+        System.out.printf("%s: %d rows from %d datalogs in %.3f s%n",
+                output, rows, merge.inputs.size(), (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,792 @@
+/*
+Reads datalogs written by Datalogger and W_Datalogger_v05, fast, on a desktop.
+
+The file is memory-mapped and read in place: numbers are parsed straight
+from the file's bytes, and no String is made for a cell unless getText() is
+called. Use it as a cursor,
+
+    DatalogReader reader = DatalogReader.open("datalog_01.txt");
+    int yaw = reader.getColumn("Yaw");
+    while (reader.next())
+    {
+        double t = reader.getTimeSeconds();
+        double y = reader.getDouble(yaw);
+    }
+    reader.close();
+
+or with a callback (forEach), or load every column into a double[] with
+readTable().
+
+It knows the exact output of both loggers:
+  - the first column is "Timestamp" (Datalogger, seconds as 000.000) or
+    "Time" (W_Datalogger_v05, seconds); getTimeSeconds() reads either.
+    W_Datalogger_v05's "d ms" column is an ordinary column.
+  - a line whose first cell is the first column's name is a header. Later
+    headers (written when Datalogger.addField() adds columns) add columns;
+    earlier lines read as blank in them.
+  - blank cells, text and missing trailing cells read as NaN.
+  - true/false (Datalogger) and 1/0 (W_Datalogger_v05) read as 1 and 0;
+    GenericField bytes such as 0x1f read as their value.
+  - a <filename>_columns.txt file next to the datalog (from
+    Builder.setColumnMetadata(true)) supplies each column's type and units.
+  - a last line cut off by a crash, with no end of line, is still read.
+
+Files are mapped in windows of up to 256 MB, so any size can be read. The
+parser reads the window 1 MB at a time through one bulk get() into a reused
+byte array, which is much faster than a get() per byte; nothing else is
+copied.
+
+Run it directly to time it:  java ... DatalogReader <datalog.txt>...
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class DatalogReader implements Closeable
+{
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int MAX_CELLS = 4096;
+
+    // Exact powers of ten; a mantissa up to 2^53 divided by one of these is correctly rounded.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final String filepath;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    // The part of the window being parsed, copied out in one bulk get().
+    private byte[] block = new byte[BLOCK_SIZE];
+    private long blockStart;
+    private int blockLimit;
+    private int position;
+
+    private final ArrayList<String> columnNames = new ArrayList<>();
+    private byte[] firstColumnName = new byte[0];
+    private String[] columnTypes = new String[0];
+    private String[] columnUnits = new String[0];
+    private int timeColumn = -1;
+
+    // Cells of the current line, as positions in the block.
+    private final int[] cellStart = new int[MAX_CELLS];
+    private final int[] cellEnd = new int[MAX_CELLS];
+    private int cellCount;
+    private long lineNumber;
+    private final long endOffset;
+
+    public interface RowHandler
+    {
+        void row(DatalogReader reader);
+    }
+
+    // All numeric values of a datalog, one array per column.
+    public static class Table
+    {
+        public final String[] columnNames;
+        public final double[][] columns;
+        public final int rows;
+
+        Table(String[] columnNames, double[][] columns, int rows)
+        {
+            this.columnNames = columnNames;
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        // Returns the named column, or null if there is no such column.
+        public double[] getColumn(String name)
+        {
+            for (int c = 0; c < columnNames.length; c++)
+            {
+                if (columnNames[c].equals(name))
+                {
+                    return columns[c];
+                }
+            }
+            return null;
+        }
+    }
+
+    private DatalogReader(String filepath, long start, long end) throws IOException
+    {
+        this.filepath = filepath;
+        file = new RandomAccessFile(filepath, "r");
+        channel = file.getChannel();
+        fileSize = channel.size();
+        endOffset = Math.min(end, fileSize);
+        map(0);
+        fill(0);
+
+        if (!readLine())
+        {
+            throw new IOException("Empty datalog: " + filepath);
+        }
+        readHeader();
+        readColumnMetadata();
+
+        // Skip to the first line that starts at or after start.
+        if (start > blockStart + position)
+        {
+            fill(start - 1);
+            readLine();
+            lineNumber = 0;
+        }
+    }
+
+    public static DatalogReader open(String filepath) throws IOException
+    {
+        return new DatalogReader(filepath, 0, Long.MAX_VALUE);
+    }
+
+    /*
+     * Opens part of a datalog, for reading a large one in parallel: the rows
+     * whose lines start at a byte offset from start up to (not including)
+     * end, so chunks that meet read every row exactly once. Column names
+     * come from the header at the start of the file. A later header
+     * (Datalogger.addField()) is only seen by the chunk it is in, so rows
+     * can have more cells than getColumnCount(); see getCellCount().
+     */
+    public static DatalogReader open(String filepath, long start, long end) throws IOException
+    {
+        return new DatalogReader(filepath, start, end);
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    public String getFilepath()
+    {
+        return filepath;
+    }
+
+    // Columns known so far; grows if a later header adds columns.
+    public int getColumnCount()
+    {
+        return columnNames.size();
+    }
+
+    public String getColumnName(int column)
+    {
+        return columnNames.get(column);
+    }
+
+    // Returns the column's index, or -1 if there is no such column (yet).
+    public int getColumn(String name)
+    {
+        return columnNames.indexOf(name);
+    }
+
+    // The Timestamp or Time column, or -1 if the datalog has neither.
+    public int getTimeColumn()
+    {
+        return timeColumn;
+    }
+
+    // From the _columns.txt file: NUMBER, INTEGER, BOOLEAN or TEXT, or null if unknown.
+    public String getColumnType(int column)
+    {
+        return column < columnTypes.length ? columnTypes[column] : null;
+    }
+
+    public String getColumnUnits(int column)
+    {
+        return column < columnUnits.length ? columnUnits[column] : null;
+    }
+
+    // Line number in the file of the current row, counting from 1 (from the start of a chunk).
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /*
+     * Moves to the next row of data, skipping header lines. Returns false at
+     * the end of the file.
+     */
+    public boolean next() throws IOException
+    {
+        while (readLine())
+        {
+            if (isHeader())
+            {
+                readHeader();
+                continue;
+            }
+            if (cellCount == 1 && cellStart[0] == cellEnd[0])
+            {
+                continue;   // empty line
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Cells in the current row, named or not.
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    public boolean isBlank(int column)
+    {
+        return column >= cellCount || cellStart[column] == cellEnd[column];
+    }
+
+    // The cell as a number, or NaN if it is blank or not a number.
+    public double getDouble(int column)
+    {
+        if (column >= cellCount)
+        {
+            return Double.NaN;
+        }
+        return parseDouble(cellStart[column], cellEnd[column]);
+    }
+
+    public double getTimeSeconds()
+    {
+        return timeColumn < 0 ? Double.NaN : getDouble(timeColumn);
+    }
+
+    // The cell as text. This allocates; use getDouble() for numbers.
+    public String getText(int column)
+    {
+        if (column >= cellCount)
+        {
+            return "";
+        }
+        return new String(block, cellStart[column], cellEnd[column] - cellStart[column], StandardCharsets.UTF_8);
+    }
+
+    // Length in bytes of the cell's text.
+    public int getLength(int column)
+    {
+        return column >= cellCount ? 0 : cellEnd[column] - cellStart[column];
+    }
+
+    // Copies the cell's text, as bytes, into dest at offset; returns the number of bytes copied.
+    public int getBytes(int column, byte[] dest, int offset)
+    {
+        int length = getLength(column);
+        if (length > 0)
+        {
+            System.arraycopy(block, cellStart[column], dest, offset, length);
+        }
+        return length;
+    }
+
+    // Calls the handler once per row; returns the number of rows.
+    public long forEach(RowHandler handler) throws IOException
+    {
+        long rows = 0;
+        while (next())
+        {
+            handler.row(this);
+            rows++;
+        }
+        return rows;
+    }
+
+    // Reads the remaining rows into one double[] per column.
+    public Table readTable() throws IOException
+    {
+        double[][] columns = null;
+        int rows = 0;
+
+        while (next())
+        {
+            if (columns == null)
+            {
+                // Guess the row count from the length of the first row, to avoid copying.
+                long lineLength = Math.max(1, cellEnd[cellCount - 1] + 1 - cellStart[0]);
+                long remaining = fileSize - (blockStart + cellStart[0]);
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, remaining / lineLength + remaining / lineLength / 8 + 16);
+                columns = new double[getColumnCount()][capacity];
+            }
+
+            if (columns.length < getColumnCount())
+            {
+                int oldCount = columns.length;
+                columns = Arrays.copyOf(columns, getColumnCount());
+                for (int c = oldCount; c < columns.length; c++)
+                {
+                    columns[c] = new double[columns[0].length];
+                    Arrays.fill(columns[c], 0, rows, Double.NaN);
+                }
+            }
+
+            if (rows == columns[0].length)
+            {
+                for (int c = 0; c < columns.length; c++)
+                {
+                    columns[c] = Arrays.copyOf(columns[c], rows * 2);
+                }
+            }
+
+            for (int c = 0; c < columns.length; c++)
+            {
+                columns[c][rows] = getDouble(c);
+            }
+            rows++;
+        }
+
+        if (columns == null)
+        {
+            columns = new double[getColumnCount()][0];
+        }
+        for (int c = 0; c < columns.length; c++)
+        {
+            if (columns[c].length != rows)
+            {
+                columns[c] = Arrays.copyOf(columns[c], rows);
+            }
+        }
+        return new Table(columnNames.toArray(new String[0]), columns, rows);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        channel.close();
+        file.close();
+    }
+
+    /*
+     * Copies the file from offset on into the block, mapping a new window
+     * if the block would run past the end of this one.
+     */
+    private void fill(long offset) throws IOException
+    {
+        long windowEnd = windowStart + window.limit();
+        if (offset + block.length > windowEnd && windowEnd < fileSize)
+        {
+            map(offset);
+            windowEnd = windowStart + window.limit();
+        }
+
+        blockStart = offset;
+        blockLimit = (int) Math.min(block.length, windowEnd - offset);
+        window.position((int) (offset - windowStart));
+        window.get(block, 0, blockLimit);
+        position = 0;
+    }
+
+    private void map(long start) throws IOException
+    {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+    }
+
+    /*
+     * Finds the cells of the next line. A line that runs past the end of the
+     * block is read again from a new block starting at the line.
+     */
+    private boolean readLine() throws IOException
+    {
+        while (true)
+        {
+            if (blockStart + position >= endOffset)
+            {
+                return false;
+            }
+            if (position >= blockLimit)
+            {
+                if (blockStart + blockLimit >= fileSize)
+                {
+                    return false;
+                }
+                fill(blockStart + position);
+                continue;
+            }
+
+            byte[] bytes = block;
+            int limit = blockLimit;
+            int start = position;
+            int cells = 0;
+            cellStart[0] = start;
+            int i = start;
+
+            while (i < limit)
+            {
+                byte b = bytes[i];
+                if (b == '\n')
+                {
+                    break;
+                }
+                if (b == ',')
+                {
+                    cellEnd[cells] = i;
+                    if (++cells == MAX_CELLS)
+                    {
+                        throw new IOException("More than " + MAX_CELLS + " columns at line " + (lineNumber + 1));
+                    }
+                    cellStart[cells] = i + 1;
+                }
+                i++;
+            }
+
+            if (i == limit && blockStart + limit < fileSize)
+            {
+                if (start == 0)
+                {
+                    if (block.length >= WINDOW_SIZE / 2)
+                    {
+                        throw new IOException("Line longer than " + block.length + " bytes at line " + (lineNumber + 1));
+                    }
+                    block = new byte[block.length * 2];
+                }
+                fill(blockStart + start);
+                continue;
+            }
+
+            int end = i;
+            if (end > start && bytes[end - 1] == '\r')
+            {
+                end--;
+            }
+            cellEnd[cells] = end;
+            cellCount = cells + 1;
+            position = i + 1;
+            lineNumber++;
+            return true;
+        }
+    }
+
+    private boolean isHeader()
+    {
+        int length = cellEnd[0] - cellStart[0];
+        if (length != firstColumnName.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (block[cellStart[0] + i] != firstColumnName[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Columns are only ever appended, so a later header keeps the earlier names.
+    private void readHeader()
+    {
+        for (int c = columnNames.size(); c < cellCount; c++)
+        {
+            columnNames.add(getText(c));
+        }
+
+        if (firstColumnName.length == 0)
+        {
+            firstColumnName = columnNames.get(0).getBytes(StandardCharsets.UTF_8);
+            String first = columnNames.get(0);
+            timeColumn = first.equals("Timestamp") || first.equals("Time") ? 0 : -1;
+        }
+    }
+
+    private void readColumnMetadata() throws IOException
+    {
+        int dot = filepath.lastIndexOf('.');
+        File metadata = new File(dot > filepath.lastIndexOf(File.separatorChar)
+                ? filepath.substring(0, dot) + "_columns" + filepath.substring(dot)
+                : filepath + "_columns");
+        if (!metadata.exists())
+        {
+            return;
+        }
+
+        ArrayList<String> types = new ArrayList<>();
+        ArrayList<String> units = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(metadata));
+
+        try
+        {
+            reader.readLine();  // Column,Type,Units,Precision,Description
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] cells = splitQuoted(line);
+                types.add(cells.length > 1 && !cells[1].isEmpty() ? cells[1] : null);
+                units.add(cells.length > 2 && !cells[2].isEmpty() ? cells[2] : null);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        columnTypes = types.toArray(new String[0]);
+        columnUnits = units.toArray(new String[0]);
+    }
+
+    private static String[] splitQuoted(String line)
+    {
+        ArrayList<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    cell.append('"');
+                    i++;
+                }
+                else if (c == '"')
+                {
+                    quoted = false;
+                }
+                else
+                {
+                    cell.append(c);
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+            }
+            else if (c == ',')
+            {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            }
+            else
+            {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells.toArray(new String[0]);
+    }
+
+    /*
+     * Parses the decimal forms both loggers write (000.123, -1.5, 42, 1.0E-5)
+     * without making a String. Rare forms that can't be converted exactly
+     * here (more than 15 or so significant digits, large exponents) go through
+     * Double.parseDouble().
+     */
+    private double parseDouble(int start, int end)
+    {
+        if (start == end)
+        {
+            return Double.NaN;
+        }
+
+        int i = start;
+        boolean negative = false;
+        byte b = block[i];
+
+        if (b == '-' || b == '+')
+        {
+            negative = b == '-';
+            if (++i == end)
+            {
+                return Double.NaN;
+            }
+            b = block[i];
+        }
+
+        if (b == 't' || b == 'f')
+        {
+            return parseBoolean(start, end);
+        }
+        if (b == '0' && i + 1 < end && (block[i + 1] == 'x' || block[i + 1] == 'X'))
+        {
+            return parseHex(i + 2, end);
+        }
+
+        // Integer digits, then fraction digits; leading zeros (000.123) cost nothing.
+        long mantissa = 0;
+        int digitsStart = i;
+        int d;
+
+        while (i < end && (d = block[i] - '0') >= 0 && d <= 9)
+        {
+            mantissa = mantissa * 10 + d;
+            i++;
+        }
+        int digits = i - digitsStart;
+        int scale = 0;
+
+        if (i < end && block[i] == '.')
+        {
+            int fractionStart = ++i;
+            while (i < end && (d = block[i] - '0') >= 0 && d <= 9)
+            {
+                mantissa = mantissa * 10 + d;
+                i++;
+            }
+            scale = i - fractionStart;
+            digits += scale;
+        }
+
+        if (digits == 0)
+        {
+            return Double.NaN;
+        }
+
+        if (i < end)
+        {
+            b = block[i];
+            int exponent = b == 'e' || b == 'E' ? parseExponent(i + 1, end) : Integer.MIN_VALUE;
+            if (exponent == Integer.MIN_VALUE)
+            {
+                return Double.NaN;
+            }
+            scale -= exponent;
+        }
+
+        double value;
+        if (digits > 18 || mantissa > MAX_EXACT_MANTISSA)
+        {
+            return Double.parseDouble(getTextBetween(start, end));
+        }
+        else if (scale >= 0 && scale < POWERS_OF_TEN.length)
+        {
+            value = mantissa / POWERS_OF_TEN[scale];
+        }
+        else if (scale < 0 && -scale < POWERS_OF_TEN.length)
+        {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        }
+        else
+        {
+            return Double.parseDouble(getTextBetween(start, end));
+        }
+        return negative ? -value : value;
+    }
+
+    // Returns Integer.MIN_VALUE if the exponent is malformed.
+    private int parseExponent(int i, int end)
+    {
+        if (i == end)
+        {
+            return Integer.MIN_VALUE;
+        }
+        boolean negative = false;
+        byte b = block[i];
+        if (b == '-' || b == '+')
+        {
+            negative = b == '-';
+            if (++i == end)
+            {
+                return Integer.MIN_VALUE;
+            }
+        }
+
+        int exponent = 0;
+        for (; i < end; i++)
+        {
+            b = block[i];
+            if (b < '0' || b > '9' || exponent > 1000)
+            {
+                return Integer.MIN_VALUE;
+            }
+            exponent = exponent * 10 + (b - '0');
+        }
+        return negative ? -exponent : exponent;
+    }
+
+    private double parseBoolean(int start, int end)
+    {
+        int length = end - start;
+        if (length == 4 && block[start] == 't' && block[start + 1] == 'r'
+                && block[start + 2] == 'u' && block[start + 3] == 'e')
+        {
+            return 1;
+        }
+        if (length == 5 && block[start] == 'f' && block[start + 1] == 'a'
+                && block[start + 2] == 'l' && block[start + 3] == 's' && block[start + 4] == 'e')
+        {
+            return 0;
+        }
+        return Double.NaN;
+    }
+
+    private double parseHex(int start, int end)
+    {
+        if (start == end || end - start > 15)
+        {
+            return Double.NaN;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            int digit = Character.digit(block[i], 16);
+            if (digit < 0)
+            {
+                return Double.NaN;
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private String getTextBetween(int start, int end)
+    {
+        return new String(block, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: DatalogReader <datalog.txt>...");
+            return;
+        }
+
+        for (String filepath : args)
+        {
+            long start = System.nanoTime();
+            DatalogReader reader = open(filepath);
+            final double[] sum = new double[1];
+            long rows = reader.forEach(new RowHandler()
+            {
+                @Override
+                public void row(DatalogReader r)
+                {
+                    for (int c = 0; c < r.getColumnCount(); c++)
+                    {
+                        double value = r.getDouble(c);
+                        if (!Double.isNaN(value))
+                        {
+                            sum[0] += value;
+                        }
+                    }
+                }
+            });
+            int columns = reader.getColumnCount();
+            reader.close();
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double megabytes = new File(filepath).length() / 1e6;
+            System.out.printf("%s: %d rows, %d columns, %.1f MB in %.3f s (%.0f MB/s), checksum %.6g%n",
+                    filepath, rows, columns, megabytes, seconds, megabytes / seconds, sum[0]);
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+Replays a recorded datalog into stand-ins for the robot's sensors, to run
+an OpMode's logic on a desktop: the same code, fed the values the sensors
+gave in a real match.
+
+    DatalogReplay replay = DatalogReplay.open("match_07.txt");
+    VoltageSensor battery = replay.voltageSensor("Battery");
+    BNO055IMU imu = replay.imu("Yaw", "Pitch", "Roll");
+    while (replay.next())
+    {
+        // battery.getVoltage() and imu.getAngularOrientation() now
+        // return this row's values
+    }
+    replay.close();
+
+Each next() moves to the next row of the datalog. A blank cell keeps the
+value before it (sample-and-hold), as a sensor read that wasn't logged
+would have; before a column's first value, it reads as NaN. The IMU
+columns are in degrees, as ConceptDatalogger logs them; the IMU returns
+them in the unit its Parameters ask for. channel(name) gives any other
+column as a number.
+
+Timing.FAST (the default) replays as fast as the logic runs. With
+Timing.RECORDED, next() waits until the row's Timestamp (or Time), counted
+from the first row, so the logic sees the match at its real pace.
+
+The datalog is never loaded whole. A reader thread parses rows ahead with
+DatalogReader, only the columns in use, into a few fixed batches of rows
+that are handed back and forth with the replay, so replaying a long
+datalog takes little memory and reading rows allocates nothing.
+
+run(opMode) runs an OpMode stand-in (init, start, loop for every row,
+stop), and runAll() replays many datalogs, e.g. every match of a season,
+on all cores, with a new OpMode for each one:
+
+    ArrayList<DatalogReplay.Result> results = DatalogReplay.runAll(files, 8,
+            new DatalogReplay.OpModeFactory()
+            {
+                @Override
+                public OpMode create(DatalogReplay replay)
+                {
+                    return new HeadingHold(replay.imu("Yaw", "Pitch", "Roll"));
+                }
+            });
+
+or from the command line, with an OpMode that has a public constructor
+taking a DatalogReplay:
+
+    java ... DatalogReplay [--recorded] [--threads <n>] --opmode <class> <datalog.txt or folder>...
+
+A folder means every datalog in it (not _summary, _columns or _preview files).
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import com.qualcomm.hardware.bosch.BNO055IMU;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+public class DatalogReplay implements Closeable
+{
+    public enum Timing
+    {
+        FAST,
+        RECORDED
+    }
+
+    private static final int BATCH_ROWS = 1024;
+    private static final int BATCHES = 4;
+    private static final long SPIN_THRESHOLD_NANOS = 200000;
+
+    private final DatalogReader reader;
+    private Timing timing = Timing.FAST;
+    private final ArrayList<Channel> channels = new ArrayList<>();
+
+    // Batches go to the reader thread empty, and come back full.
+    private final ArrayBlockingQueue<Batch> empty = new ArrayBlockingQueue<>(BATCHES);
+    private final ArrayBlockingQueue<Batch> full = new ArrayBlockingQueue<>(BATCHES);
+    private Thread readerThread;
+
+    private Batch batch;
+    private int row;
+    private boolean finished;
+    private long rows;
+    private double timeSeconds = Double.NaN;
+    private double firstTimeSeconds = Double.NaN;
+    private long startNanos;
+
+    /*
+     * One column, as a number. get() returns the value of the current row,
+     * or the last value before it if the cell is blank.
+     */
+    public static class Channel
+    {
+        private final String name;
+        private double value = Double.NaN;
+
+        private Channel(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public double get()
+        {
+            return value;
+        }
+    }
+
+    // Up to BATCH_ROWS rows: each row's time, then its channels' values.
+    private static class Batch
+    {
+        final double[] times = new double[BATCH_ROWS];
+        final double[] values;
+        int rows;
+        IOException error;
+
+        Batch(int channelCount)
+        {
+            values = new double[BATCH_ROWS * channelCount];
+        }
+    }
+
+    private DatalogReplay(DatalogReader reader)
+    {
+        this.reader = reader;
+    }
+
+    public static DatalogReplay open(String filepath) throws IOException
+    {
+        return new DatalogReplay(DatalogReader.open(filepath));
+    }
+
+    public String getFilepath()
+    {
+        return reader.getFilepath();
+    }
+
+    public DatalogReplay setTiming(Timing timing)
+    {
+        this.timing = timing;
+        return this;
+    }
+
+    // Sources must be made before the first next(); the same column can be used by several.
+    public Channel channel(String column)
+    {
+        if (readerThread != null) throw new RuntimeException("Add replay sources before the first next()!");
+
+        Channel channel = new Channel(column);
+        channels.add(channel);
+        return channel;
+    }
+
+    public VoltageSensor voltageSensor(String column)
+    {
+        final Channel voltage = channel(column);
+
+        return new VoltageSensor()
+        {
+            @Override
+            public double getVoltage()
+            {
+                return voltage.get();
+            }
+        };
+    }
+
+    // Heading, pitch and roll columns, in degrees.
+    public BNO055IMU imu(String firstAngle, String secondAngle, String thirdAngle)
+    {
+        return new ReplayImu(channel(firstAngle), channel(secondAngle), channel(thirdAngle));
+    }
+
+    private class ReplayImu implements BNO055IMU
+    {
+        private final Channel first;
+        private final Channel second;
+        private final Channel third;
+        private Parameters parameters = new Parameters();
+
+        ReplayImu(Channel first, Channel second, Channel third)
+        {
+            this.first = first;
+            this.second = second;
+            this.third = third;
+        }
+
+        @Override
+        public boolean initialize(Parameters parameters)
+        {
+            this.parameters = parameters;
+            return true;
+        }
+
+        @Override
+        public Parameters getParameters()
+        {
+            return parameters;
+        }
+
+        @Override
+        public Orientation getAngularOrientation()
+        {
+            double scale = parameters.angleUnit == AngleUnit.RADIANS ? Math.PI / 180 : 1;
+            return new Orientation((float) (first.get() * scale), (float) (second.get() * scale),
+                    (float) (third.get() * scale), (long) (timeSeconds * 1e9));
+        }
+    }
+
+    /*
+     * Moves every source to the next row; false at the end of the datalog.
+     * With Timing.RECORDED, first waits until that row's time.
+     */
+    public boolean next() throws IOException
+    {
+        if (finished)
+        {
+            return false;
+        }
+        if (readerThread == null)
+        {
+            start();
+        }
+
+        if (batch == null || row == batch.rows)
+        {
+            if (batch != null)
+            {
+                empty.add(batch);
+            }
+            batch = take();
+            row = 0;
+
+            if (batch.rows == 0)
+            {
+                finished = true;
+                if (batch.error != null)
+                {
+                    throw batch.error;
+                }
+                return false;
+            }
+        }
+
+        int channelCount = channels.size();
+        for (int c = 0; c < channelCount; c++)
+        {
+            double value = batch.values[row * channelCount + c];
+            if (!Double.isNaN(value))
+            {
+                channels.get(c).value = value;
+            }
+        }
+
+        double t = batch.times[row];
+        if (!Double.isNaN(t))
+        {
+            timeSeconds = t;
+        }
+        row++;
+        rows++;
+
+        if (Double.isNaN(firstTimeSeconds) && !Double.isNaN(timeSeconds))
+        {
+            firstTimeSeconds = timeSeconds;
+            startNanos = System.nanoTime();
+        }
+        if (timing == Timing.RECORDED && !Double.isNaN(firstTimeSeconds))
+        {
+            waitUntil(startNanos + (long) ((timeSeconds - firstTimeSeconds) * 1e9));
+        }
+        return true;
+    }
+
+    // The current row's time in the datalog, in seconds.
+    public double getTimeSeconds()
+    {
+        return timeSeconds;
+    }
+
+    // Rows replayed so far.
+    public long getRows()
+    {
+        return rows;
+    }
+
+    /*
+     * Runs the OpMode on the whole datalog: init() and start() once the
+     * first row's values are in the sources, then loop() for each row, then
+     * stop(). Returns the number of rows.
+     */
+    public long run(OpMode opMode) throws IOException
+    {
+        if (!next())
+        {
+            return 0;
+        }
+
+        opMode.init();
+        opMode.start();
+        do
+        {
+            opMode.loop();
+        }
+        while (next());
+        opMode.stop();
+
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (readerThread != null)
+        {
+            readerThread.interrupt();
+            try
+            {
+                readerThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        reader.close();
+    }
+
+    private void start() throws IOException
+    {
+        if (timing == Timing.RECORDED && reader.getTimeColumn() < 0)
+        {
+            throw new IOException("No Timestamp or Time column in " + reader.getFilepath());
+        }
+
+        for (int i = 0; i < BATCHES; i++)
+        {
+            empty.add(new Batch(channels.size()));
+        }
+
+        readerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                readRows();
+            }
+        }, "Datalog replay reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private Batch take() throws IOException
+    {
+        try
+        {
+            return full.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Replay interrupted", e);
+        }
+    }
+
+    // The reader thread: fills batches until the end of the datalog, then sends an empty one.
+    private void readRows()
+    {
+        int channelCount = channels.size();
+        int[] columns = new int[channelCount];
+        int resolvedColumnCount = -1;
+
+        try
+        {
+            while (true)
+            {
+                Batch next = empty.take();
+                next.rows = 0;
+                IOException error = null;
+
+                try
+                {
+                    while (next.rows < BATCH_ROWS && reader.next())
+                    {
+                        // Look the columns up again when a header line adds some.
+                        if (reader.getColumnCount() != resolvedColumnCount)
+                        {
+                            resolvedColumnCount = reader.getColumnCount();
+                            for (int c = 0; c < channelCount; c++)
+                            {
+                                columns[c] = reader.getColumn(channels.get(c).name);
+                            }
+                        }
+
+                        int offset = next.rows * channelCount;
+                        for (int c = 0; c < channelCount; c++)
+                        {
+                            next.values[offset + c] = columns[c] < 0 ? Double.NaN : reader.getDouble(columns[c]);
+                        }
+                        next.times[next.rows++] = reader.getTimeSeconds();
+                    }
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                }
+
+                if (next.rows == BATCH_ROWS && error == null)
+                {
+                    full.put(next);
+                    continue;
+                }
+
+                // The end of the datalog (or an error), after the last rows.
+                if (next.rows > 0)
+                {
+                    full.put(next);
+                    next = empty.take();
+                    next.rows = 0;
+                }
+                next.error = error;
+                full.put(next);
+                return;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // close() before the end of the datalog.
+        }
+    }
+
+    private static void waitUntil(long deadline)
+    {
+        while (true)
+        {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                return;
+            }
+            if (remaining > SPIN_THRESHOLD_NANOS)
+            {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            }
+        }
+    }
+
+    // Makes the OpMode for one datalog, connecting it to that replay's sources.
+    public interface OpModeFactory
+    {
+        OpMode create(DatalogReplay replay) throws Exception;
+    }
+
+    public static class Result
+    {
+        public final String filepath;
+        public final OpMode opMode;
+        public final long rows;
+        public final double seconds;
+        public final Exception error;
+
+        Result(String filepath, OpMode opMode, long rows, double seconds, Exception error)
+        {
+            this.filepath = filepath;
+            this.opMode = opMode;
+            this.rows = rows;
+            this.seconds = seconds;
+            this.error = error;
+        }
+    }
+
+    /*
+     * Replays each datalog with its own OpMode, on that many threads, as
+     * fast as possible unless the factory sets Timing.RECORDED. Results are
+     * in the order of the files. An exception in
+     * one replay, from the datalog or the OpMode, is kept in its Result and
+     * the others carry on.
+     */
+    public static ArrayList<Result> runAll(List<File> files, int threads, final OpModeFactory factory)
+            throws InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+
+        try
+        {
+            for (final File file : files)
+            {
+                futures.add(pool.submit(new Callable<Result>()
+                {
+                    @Override
+                    public Result call()
+                    {
+                        return runOne(file.getPath(), factory);
+                    }
+                }));
+            }
+
+            ArrayList<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures)
+            {
+                try
+                {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e)
+                {
+                    // runOne() keeps exceptions; only an Error gets here.
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Result runOne(String filepath, OpModeFactory factory)
+    {
+        DatalogReplay replay = null;
+        OpMode opMode = null;
+
+        try
+        {
+            replay = DatalogReplay.open(filepath);
+            opMode = factory.create(replay);
+            replay.run(opMode);
+            return new Result(filepath, opMode, replay.rows, replay.seconds(), null);
+        }
+        catch (Exception e)
+        {
+            return new Result(filepath, opMode, replay == null ? 0 : replay.rows,
+                    replay == null ? 0 : replay.seconds(), e);
+        }
+        finally
+        {
+            if (replay != null)
+            {
+                try
+                {
+                    replay.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Seconds of the datalog replayed, from the first row's time.
+    private double seconds()
+    {
+        return Double.isNaN(firstTimeSeconds) ? 0 : timeSeconds - firstTimeSeconds;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        ArrayList<String> paths = new ArrayList<>();
+        String opModeClass = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final boolean[] recorded = {false};
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--recorded"))
+            {
+                recorded[0] = true;
+            }
+            else if (args[i].equals("--threads") && i + 1 < args.length)
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--opmode") && i + 1 < args.length)
+            {
+                opModeClass = args[++i];
+            }
+            else
+            {
+                paths.add(args[i]);
+            }
+        }
+
+        ArrayList<File> files = DatalogAnalysis.datalogFiles(paths);
+        if (opModeClass == null || files.isEmpty())
+        {
+            System.out.println("Usage: DatalogReplay [--recorded] [--threads <n>] --opmode <class> "
+                    + "<datalog.txt or folder>...");
+            return;
+        }
+
+        final Class<?> type = Class.forName(opModeClass);
+        long start = System.nanoTime();
+
+        ArrayList<Result> results = runAll(files, threads, new OpModeFactory()
+        {
+            @Override
+            public OpMode create(DatalogReplay replay) throws Exception
+            {
+                if (recorded[0])
+                {
+                    replay.setTiming(Timing.RECORDED);
+                }
+                return (OpMode) type.getConstructor(DatalogReplay.class).newInstance(replay);
+            }
+        });
+
+        long rows = 0;
+        int failed = 0;
+        for (Result result : results)
+        {
+            rows += result.rows;
+            if (result.error != null)
+            {
+                failed++;
+            }
+            System.out.printf("%s: %d rows, %.1f s%s%n", result.filepath, result.rows, result.seconds,
+                    result.error == null ? "" : ", failed: " + result.error);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d datalogs (%d failed), %d rows in %.3f s, %.0f rows/s%n",
+                results.size(), failed, rows, seconds, rows / seconds);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+Connects to a Datalogger's live tail (Builder.setLiveTail(), see
+DatalogLiveTail.java) and prints the lines as they arrive, e.g. to pipe
+into a plotting program during practice.
+
+Usage:
+
+    java ... DatalogTailClient [--columns <name,name,...>] [-o <file>] [host:]port
+
+The host defaults to the Robot Controller's usual address, 192.168.43.1.
+--columns prints only those columns (and the Timestamp or Time column),
+found by name in the latest header line, so it keeps working when columns
+are added. -o also writes every line received to a file. The client runs
+until the datalog is closed or the connection is lost.
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class DatalogTailClient
+{
+    private static final String DEFAULT_HOST = "192.168.43.1";
+
+    public interface LineHandler
+    {
+        // header is the latest header line's cells; cells are this line's.
+        void line(String[] header, String[] cells);
+    }
+
+    /*
+     * Reads lines from the live tail until it closes, calling the handler
+     * for each line of data. Header lines update the header; they are also
+     * passed to the copy, if there is one.
+     */
+    public static void read(String host, int port, Writer copy, LineHandler handler) throws IOException
+    {
+        Socket socket = new Socket(host, port);
+
+        try
+        {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String[] header = null;
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                if (copy != null)
+                {
+                    copy.write(line);
+                    copy.write('\n');
+                }
+
+                String[] cells = line.split(",", -1);
+                if (header == null || cells[0].equals(header[0]))
+                {
+                    header = cells;
+                    continue;
+                }
+                handler.line(header, cells);
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String address = null;
+        String output = null;
+        String[] columns = null;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--columns") && i + 1 < args.length)
+            {
+                columns = args[++i].split(",");
+            }
+            else if (args[i].equals("-o") && i + 1 < args.length)
+            {
+                output = args[++i];
+            }
+            else
+            {
+                address = args[i];
+            }
+        }
+
+        if (address == null)
+        {
+            System.out.println("Usage: DatalogTailClient [--columns <name,name,...>] [-o <file>] [host:]port");
+            return;
+        }
+
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? DEFAULT_HOST : address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+
+        final PrintWriter out = new PrintWriter(System.out, true);
+        final String[] selected = columns;
+        Writer copy = output == null ? null : new FileWriter(output);
+
+        try
+        {
+            read(host, port, copy, new LineHandler()
+            {
+                private String[] lastHeader;
+                private int[] indexes;
+
+                @Override
+                public void line(String[] header, String[] cells)
+                {
+                    if (header != lastHeader)
+                    {
+                        lastHeader = header;
+                        indexes = select(header, selected);
+                        StringBuilder names = new StringBuilder();
+                        for (int index : indexes)
+                        {
+                            names.append(names.length() > 0 ? "," : "").append(header[index]);
+                        }
+                        out.println(names);
+                    }
+
+                    StringBuilder values = new StringBuilder();
+                    for (int i = 0; i < indexes.length; i++)
+                    {
+                        values.append(i > 0 ? "," : "").append(indexes[i] < cells.length ? cells[indexes[i]] : "");
+                    }
+                    out.println(values);
+                }
+            });
+        }
+        finally
+        {
+            if (copy != null)
+            {
+                copy.close();
+            }
+        }
+    }
+
+    // The time column and the named columns that are in the header, or all columns if none are named.
+    private static int[] select(String[] header, String[] names)
+    {
+        ArrayList<Integer> indexes = new ArrayList<>();
+        indexes.add(0);
+
+        for (int c = 1; c < header.length; c++)
+        {
+            if (names == null || Arrays.asList(names).contains(header[c]))
+            {
+                indexes.add(c);
+            }
+        }
+
+        int[] result = new int[indexes.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = indexes.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Checks a Datalogger's live tail (see DatalogLiveTail.java) against
+DatalogTailClient over the loopback interface, without a robot.
+
+Usage:
+
+    java ... DatalogTailLoopbackCheck
+
+It builds a Datalogger in a temporary folder with setLiveTail(0), so the
+live tail takes any free port, and connects a DatalogTailClient to it. Once
+the client is connected it writes some lines, adds a column (so the header
+line is sent again) and writes some more, then closes the datalog. The
+client must receive the header, every line and the second header, exactly
+as written to the file. Prints PASS, or throws with what was different.
+
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeManagerImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class DatalogTailLoopbackCheck
+{
+    private static final int LINES = 200;
+    private static final long TIMEOUT_MS = 10000;
+
+    public static void main(String[] args) throws Exception
+    {
+        File directory = Files.createTempDirectory("tail_loopback").toFile();
+        Datalogger.GenericField counter = new Datalogger.GenericField("Counter");
+
+        Datalogger datalogger = new Datalogger.Builder()
+                .setDirectory(directory.getPath())
+                .setFilename("loopback")
+                .setAutoTimestamp(Datalogger.AutoTimestamp.DECIMAL_SECONDS)
+                .setFields(counter)
+                .setLiveTail(0)
+                .build();
+
+        DatalogLiveTail liveTail = datalogger.getLiveTail();
+        if (liveTail == null) throw new RuntimeException("Live tail did not start!");
+
+        final int port = liveTail.getPort();
+        final StringWriter received = new StringWriter();
+        final int[] dataLines = new int[1];
+        final IOException[] error = new IOException[1];
+
+        Thread client = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    DatalogTailClient.read("127.0.0.1", port, received, new DatalogTailClient.LineHandler()
+                    {
+                        @Override
+                        public void line(String[] header, String[] cells)
+                        {
+                            dataLines[0]++;
+                        }
+                    });
+                }
+                catch (IOException e)
+                {
+                    error[0] = e;
+                }
+            }
+        }, "Tail client");
+        client.start();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (liveTail.getClientCount() == 0)
+        {
+            if (System.currentTimeMillis() > deadline) throw new RuntimeException("Client did not connect!");
+            Thread.sleep(1);
+        }
+
+        for (int i = 0; i < LINES; i++)
+        {
+            counter.set(i);
+            datalogger.writeLine();
+        }
+
+        Datalogger.GenericField extra = new Datalogger.GenericField("Extra");
+        datalogger.addField(extra);
+
+        for (int i = LINES; i < 2 * LINES; i++)
+        {
+            counter.set(i);
+            extra.set(-i);
+            datalogger.writeLine();
+        }
+
+        // Closes the datalog, as the SDK does after the OpMode stops; the live tail then ends the connection.
+        OpModeManagerImpl.getOpModeManagerOfActivity(null).dispatchPostStop(null);
+        if (!datalogger.awaitClose(TIMEOUT_MS)) throw new RuntimeException("Datalog did not close!");
+
+        client.join(TIMEOUT_MS);
+        if (client.isAlive()) throw new RuntimeException("Client was not disconnected!");
+        if (error[0] != null) throw error[0];
+
+        String written = new String(Files.readAllBytes(new File(directory, "loopback.txt").toPath()), StandardCharsets.UTF_8);
+        String sent = received.toString();
+
+        String[] lines = sent.split("\n");
+        int headers = 0;
+        for (String line : lines)
+        {
+            if (line.startsWith("Timestamp,"))
+            {
+                headers++;
+            }
+        }
+
+        if (!lines[0].equals("Timestamp,Counter")) throw new RuntimeException("First line was not the header: " + lines[0] + "!");
+        if (headers != 2) throw new RuntimeException("Expected the header twice, got " + headers + "!");
+        if (dataLines[0] != 2 * LINES) throw new RuntimeException("Expected " + 2 * LINES + " lines, got " + dataLines[0] + "!");
+        if (liveTail.getDroppedLines() != 0) throw new RuntimeException("Live tail dropped " + liveTail.getDroppedLines() + " lines!");
+        if (!sent.equals(written.replace("\r\n", "\n"))) throw new RuntimeException("Lines received differ from the datalog file!");
+
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+        directory.delete();
+
+        System.out.println("PASS: " + dataLines[0] + " lines and " + headers + " headers received on port " + port);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+JMH benchmark of Datalogger.writeLine(), off-robot.
+
+Each line has 5, 20 or 100 user fields of mixed types (int, double, String
+and boolean GenericFields, in rotation) plus the automatic timestamp.
+Each is written to one of three backends:
+  NULL  - an OutputStream that discards everything: formatting cost only
+  TMPFS - a file in /dev/shm: formatting plus in-memory file writes
+  FILE  - a file in java.io.tmpdir: formatting plus regular file writes
+
+writeLine() measures the Datalogger alone. setFieldsAndWriteLine() also
+sets every field first, as an OpMode loop does.
+
+See Tools/README.md for how to build and run the benchmarks.
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeManagerImpl;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.OutputStream;
+
+@State(Scope.Thread)
+public class DataloggerBenchmark
+{
+    public enum Backend
+    {
+        NULL,
+        TMPFS,
+        FILE
+    }
+
+    private static final String[] STATUS = {"INIT", "RUNNING", "STOPPED"};
+
+    @Param({"5", "20", "100"})
+    public int fieldCount;
+
+    @Param({"NULL", "TMPFS", "FILE"})
+    public Backend backend;
+
+    private Datalogger datalogger;
+    private Datalogger.GenericField[] fields;
+    private String filename;
+    private String directory;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        fields = new Datalogger.GenericField[fieldCount];
+        for (int i = 0; i < fieldCount; i++)
+        {
+            fields[i] = new Datalogger.GenericField("Field " + i);
+        }
+        setFields();
+
+        filename = "bench_" + fieldCount + "_" + backend;
+        directory = directoryFor(backend);
+
+        Datalogger.Builder builder = new Datalogger.Builder()
+                .setFilename(filename)
+                .setDirectory(directory)
+                .setAutoTimestamp(Datalogger.AutoTimestamp.DECIMAL_SECONDS)
+                .setFields(fields);
+
+        if (backend == Backend.NULL)
+        {
+            builder.setOutputStream(new NullOutputStream());
+        }
+
+        datalogger = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        // Closes the datalog, as the SDK does after the OpMode stops.
+        OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity()).dispatchPostStop(null);
+        datalogger.awaitClose(Long.MAX_VALUE);
+
+        if (backend != Backend.NULL)
+        {
+            // The datalog and any files written next to it.
+            String[] suffixes = {".txt", "_summary.txt", "_columns.txt", DatalogPreview.SUFFIX + ".txt", DatalogRecovery.INDEX_EXTENSION};
+            for (String suffix : suffixes)
+            {
+                new File(directory, filename + suffix).delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeLine()
+    {
+        datalogger.writeLine();
+    }
+
+    @Benchmark
+    public void setFieldsAndWriteLine()
+    {
+        setFields();
+        datalogger.writeLine();
+    }
+
+    private void setFields()
+    {
+        counter++;
+
+        for (int i = 0; i < fields.length; i++)
+        {
+            switch (i % 4)
+            {
+                case 0:
+                    fields[i].set(counter + i);
+                    break;
+                case 1:
+                    fields[i].set(counter * 0.01 + i);
+                    break;
+                case 2:
+                    fields[i].set(STATUS[(counter + i) % STATUS.length]);
+                    break;
+                default:
+                    fields[i].set(((counter + i) & 1) == 0);
+                    break;
+            }
+        }
+    }
+
+    static String directoryFor(Backend backend)
+    {
+        switch (backend)
+        {
+            case TMPFS:
+                if (!new File("/dev/shm").isDirectory())
+                {
+                    throw new RuntimeException("TMPFS backend needs /dev/shm");
+                }
+                return "/dev/shm";
+            default:
+                return System.getProperty("java.io.tmpdir");
+        }
+    }
+
+    static class NullOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Runs every Datalogging benchmark in throughput mode with the JMH GC
+profiler, which adds the allocation rate (bytes per operation) to each
+result. Any command-line arguments are passed to JMH instead, for example
+a benchmark name pattern:
+
+    java ... org.firstinspires.ftc.teamcode.DataloggerBenchmarkMain FieldBenchmark -prof gc
+
+See Tools/README.md for how to build and run the benchmarks.
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+public class DataloggerBenchmarkMain
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length > 0)
+        {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .include("org\\.firstinspires\\.ftc\\.teamcode\\..*Benchmark")
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+JMH benchmark of the per-field costs inside a Datalogger line: the
+GenericField.set(...) overloads an OpMode calls each loop, and
+writeToBuffer() for a GenericField and for the automatic timestamp, and a
+hand-written GenericField column against the same value read from an
+@Datalogger.Log field (Builder.addFieldsFrom()).
+
+See Tools/README.md for how to build and run the benchmarks.
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+public class FieldBenchmark
+{
+    private final Datalogger.GenericField field = new Datalogger.GenericField("Field");
+    private final Datalogger.TimestampField timestamp = new Datalogger.TimestampField("Timestamp");
+    private final StringBuilder buffer = new StringBuilder(64);
+
+    private int intValue;
+    private double doubleValue;
+
+    public static class Values implements Datalogger.LogSource
+    {
+        @Datalogger.Log("Value") double value;
+
+        @Override
+        public void bindFields(Datalogger.FieldBinder binder)
+        {
+            binder.bindDouble("value", () -> value);
+        }
+    }
+
+    private final Values values = new Values();
+    private final Datalogger.LoggableField annotated = Datalogger.AnnotatedField.fieldsOf(values).get(0);
+
+    @Setup
+    public void setup()
+    {
+        field.set(12.345);
+    }
+
+    @Benchmark
+    public void setInt()
+    {
+        field.set(intValue++);
+    }
+
+    @Benchmark
+    public void setDouble()
+    {
+        doubleValue += 0.001;
+        field.set(doubleValue);
+    }
+
+    @Benchmark
+    public void setDoubleWithFormat()
+    {
+        doubleValue += 0.001;
+        field.set("%.2f", doubleValue);
+    }
+
+    @Benchmark
+    public void setString()
+    {
+        field.set("RUNNING");
+    }
+
+    @Benchmark
+    public void genericFieldWriteToBuffer(Blackhole blackhole)
+    {
+        buffer.setLength(0);
+        field.writeToBuffer(buffer);
+        blackhole.consume(buffer);
+    }
+
+    // Set and format one double column, as an OpMode loop does with a GenericField...
+    @Benchmark
+    public void genericFieldSetAndWrite(Blackhole blackhole)
+    {
+        doubleValue += 0.001;
+        field.set(doubleValue);
+        buffer.setLength(0);
+        field.writeToBuffer(buffer);
+        blackhole.consume(buffer);
+    }
+
+    // ...and with an annotated field.
+    @Benchmark
+    public void annotatedFieldSetAndWrite(Blackhole blackhole)
+    {
+        values.value += 0.001;
+        buffer.setLength(0);
+        annotated.writeToBuffer(buffer);
+        blackhole.consume(buffer);
+    }
+
+    @Benchmark
+    public void timestampFieldWriteToBuffer(Blackhole blackhole)
+    {
+        buffer.setLength(0);
+        timestamp.writeToBuffer(buffer);
+        blackhole.consume(buffer);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+JMH benchmark of the legacy W_Datalogger_v05 path: one addField() call per
+field, then newLine(), which inserts the two timestamp columns and writes
+the line. Lines have 5, 20 or 100 fields, for comparison with
+DataloggerBenchmark.
+
+W_Datalogger_v05 always writes to a file, so only the TMPFS and FILE
+backends apply.
+
+See Tools/README.md for how to build and run the benchmarks.
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+
+@State(Scope.Thread)
+public class LegacyDataloggerBenchmark
+{
+    @Param({"5", "20", "100"})
+    public int fieldCount;
+
+    @Param({"TMPFS", "FILE"})
+    public DataloggerBenchmark.Backend backend;
+
+    private W_Datalogger_v05 datalogger;
+    private String filename;
+    private String directory;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        filename = "bench_legacy_" + fieldCount + "_" + backend;
+        directory = DataloggerBenchmark.directoryFor(backend);
+        datalogger = new W_Datalogger_v05(directory, filename);
+
+        for (int i = 0; i < fieldCount; i++)
+        {
+            datalogger.addField("Field " + i);
+        }
+        datalogger.firstLine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        datalogger.closeDataLogger();
+        new File(directory, filename + ".txt").delete();
+    }
+
+    @Benchmark
+    public void addFieldsAndNewLine()
+    {
+        counter++;
+
+        for (int i = 0; i < fieldCount; i++)
+        {
+            switch (i % 4)
+            {
+                case 0:
+                    datalogger.addField(counter + i);
+                    break;
+                case 1:
+                    datalogger.addField(counter * 0.01 + i);
+                    break;
+                case 2:
+                    datalogger.addField("RUNNING");
+                    break;
+                default:
+                    datalogger.addField(((counter + i) & 1) == 0);
+                    break;
+            }
+        }
+
+        datalogger.newLine();
+    }
+}
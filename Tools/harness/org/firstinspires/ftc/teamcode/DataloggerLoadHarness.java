@@ -0,0 +1,517 @@
+/*
+Drives a Datalogger off-robot exactly the way an OpMode does, to check
+logger changes on a desktop without a robot.
+
+The harness plays both parts: the SDK event loop (the INIT, START and
+post-stop notifications, through the OpModeManagerImpl stand-in) and the
+OpMode thread (a fixed-rate loop that sets every field and calls
+writeLine()). Background threads can add CPU and garbage-collection load,
+like the other threads of the Robot Controller app.
+
+Each run is repeated in three modes:
+  none  - the same loop without logging, as the baseline
+  sync  - Datalogger writing the file on the loop thread
+  async - Datalogger with Builder.setAsyncWrites()
+For each mode it reports the loop-period error (actual period minus target,
+in milliseconds), the time spent logging per loop, how long the post-stop
+notification held up the SDK, how long the background close took to drain
+and sync the file, and the Datalogger's own metrics.
+
+Options (all optional):
+  --rate <Hz>          loop rate, 50 to 2000 (default 200)
+  --seconds <s>        length of each run (default 10)
+  --fields <n>         number of fields (default 20)
+  --mix <i,d,s,b>      relative numbers of int, double, String and boolean
+                       fields (default 1,2,1,1)
+  --pattern <name>     field values: constant, ramp, sine or noise (default sine)
+  --threads <n>        background load threads (default 2)
+  --queue <lines>      async queue length (default 256)
+  --dir <folder>       where to write the datalogs (default java.io.tmpdir)
+  --replay <file>      replay an existing datalog instead: its Timestamp (or
+                       Time) column sets the loop timing, its other columns
+                       the field values
+
+See Tools/README.md for how to build and run the harness.
+*/
+
+package org.firstinspires.ftc.teamcode;
+
+import org.firstinspires.ftc.robotcore.internal.opmode.OpModeManagerImpl;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+public class DataloggerLoadHarness
+{
+    enum Mode
+    {
+        NONE,
+        SYNC,
+        ASYNC
+    }
+
+    enum Pattern
+    {
+        CONSTANT,
+        RAMP,
+        SINE,
+        NOISE
+    }
+
+    private static final long SPIN_THRESHOLD_NANOS = 200000;
+
+    private int rateHz = 200;
+    private double seconds = 10;
+    private int fieldCount = 20;
+    private int[] mix = {1, 2, 1, 1};
+    private Pattern pattern = Pattern.SINE;
+    private int loadThreads = 2;
+    private int queueLines = 256;
+    private String directory = System.getProperty("java.io.tmpdir");
+    private Replay replay;
+
+    private volatile boolean loadRunning;
+
+    public static void main(String[] args) throws Exception
+    {
+        DataloggerLoadHarness harness = new DataloggerLoadHarness();
+        harness.parseArgs(args);
+
+        if (harness.replay != null)
+        {
+            System.out.printf("Replaying %d lines of %d fields, %d load threads%n",
+                    harness.replay.lines, harness.fieldCount, harness.loadThreads);
+        }
+        else
+        {
+            System.out.printf("%d Hz, %d fields, %s values, %d load threads%n",
+                    harness.rateHz, harness.fieldCount, harness.pattern.name().toLowerCase(), harness.loadThreads);
+        }
+        System.out.println("mode   period error ms (p50 / p99 / p99.9 / max)   logging ms (p50 / p99 / max)   stop ms  close ms");
+
+        for (Mode mode : Mode.values())
+        {
+            harness.run(mode);
+        }
+    }
+
+    private void parseArgs(String[] args) throws IOException
+    {
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            String value = args[i + 1];
+
+            switch (args[i])
+            {
+                case "--rate":
+                    rateHz = Integer.parseInt(value);
+                    if (rateHz < 50 || rateHz > 2000) throw new IllegalArgumentException("Rate must be 50 to 2000 Hz");
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(value);
+                    break;
+                case "--fields":
+                    fieldCount = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    String[] parts = value.split(",");
+                    if (parts.length != 4) throw new IllegalArgumentException("Mix needs four numbers: int,double,String,boolean");
+                    for (int j = 0; j < 4; j++)
+                    {
+                        mix[j] = Integer.parseInt(parts[j].trim());
+                    }
+                    break;
+                case "--pattern":
+                    pattern = Pattern.valueOf(value.toUpperCase());
+                    break;
+                case "--threads":
+                    loadThreads = Integer.parseInt(value);
+                    break;
+                case "--queue":
+                    queueLines = Integer.parseInt(value);
+                    break;
+                case "--dir":
+                    directory = value;
+                    break;
+                case "--replay":
+                    replay = Replay.load(value);
+                    fieldCount = replay.columns;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run(Mode mode) throws InterruptedException
+    {
+        OpModeManagerImpl opModeManager = OpModeManagerImpl.getOpModeManagerOfActivity(AppUtil.getInstance().getActivity());
+        Thread[] load = startLoad();
+
+        // INIT: the OpMode builds its datalog, as ConceptDatalogger does.
+        opModeManager.dispatchPreInit(null);
+
+        Datalogger.GenericField[] fields = new Datalogger.GenericField[fieldCount];
+        for (int i = 0; i < fieldCount; i++)
+        {
+            fields[i] = new Datalogger.GenericField(replay != null ? replay.names[i] : "Field " + i);
+        }
+
+        Datalogger datalogger = null;
+        if (mode != Mode.NONE)
+        {
+            datalogger = new Datalogger.Builder()
+                    .setFilename("harness_" + mode.name().toLowerCase())
+                    .setDirectory(directory)
+                    .setAutoTimestamp(Datalogger.AutoTimestamp.DECIMAL_SECONDS)
+                    .setAsyncWrites(mode == Mode.ASYNC ? queueLines : 0)
+                    .setFields(fields)
+                    .build();
+            fields[0].set("INIT");
+            datalogger.writeLine();
+        }
+
+        // START, then the OpMode loop.
+        opModeManager.dispatchPreStart(null);
+
+        DatalogHistogram periodError = new DatalogHistogram();
+        DatalogHistogram loggingTime = new DatalogHistogram();
+        long loops = replay != null ? replay.lines : (long) (seconds * rateHz);
+        long periodNanos = 1000000000L / rateHz;
+        long next = System.nanoTime();
+        long last = 0;
+
+        for (long n = 0; n < loops; n++)
+        {
+            if (replay != null)
+            {
+                periodNanos = replay.periodNanos[(int) n];
+            }
+
+            next += periodNanos;
+            waitUntil(next);
+
+            long start = System.nanoTime();
+            if (last != 0)
+            {
+                periodError.recordValue(Math.abs((start - last) - periodNanos) / 1000);
+            }
+            last = start;
+
+            // A deadline missed by more than a whole period is not made up with a burst.
+            if (start - next > periodNanos)
+            {
+                next = start;
+            }
+
+            setFields(fields, n);
+            if (datalogger != null)
+            {
+                datalogger.writeLine();
+            }
+            loggingTime.recordValue((System.nanoTime() - start) / 1000);
+        }
+
+        // STOP: the SDK notifies listeners from its event loop thread, not the OpMode thread.
+        final long[] closeNanos = new long[1];
+        Thread eventLoop = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long start = System.nanoTime();
+                opModeManager.dispatchPostStop(null);
+                closeNanos[0] = System.nanoTime() - start;
+            }
+        }, "Event loop");
+        eventLoop.start();
+        eventLoop.join();
+
+        double closeMs = 0;
+        if (datalogger != null)
+        {
+            datalogger.awaitClose(Long.MAX_VALUE);
+            closeMs = datalogger.getMetrics().getCloseMs();
+        }
+
+        stopLoad(load);
+
+        System.out.printf("%-6s %6.3f / %6.3f / %6.3f / %6.3f           %6.3f / %6.3f / %6.3f        %7.2f  %7.2f%n",
+                mode.name().toLowerCase(),
+                periodError.getPercentileMs(50), periodError.getPercentileMs(99), periodError.getPercentileMs(99.9), periodError.getMaxMs(),
+                loggingTime.getPercentileMs(50), loggingTime.getPercentileMs(99), loggingTime.getMaxMs(),
+                closeNanos[0] / 1e6, closeMs);
+
+        if (datalogger != null)
+        {
+            System.out.println("       " + datalogger.getMetrics());
+        }
+    }
+
+    private void setFields(Datalogger.GenericField[] fields, long n)
+    {
+        if (replay != null)
+        {
+            replay.setFields(fields, (int) n);
+            return;
+        }
+
+        int mixTotal = mix[0] + mix[1] + mix[2] + mix[3];
+
+        for (int i = 0; i < fields.length; i++)
+        {
+            double value = value(n, i);
+            int slot = i % mixTotal;
+
+            if (slot < mix[0])
+            {
+                fields[i].set((int) value);
+            }
+            else if (slot < mix[0] + mix[1])
+            {
+                fields[i].set(value);
+            }
+            else if (slot < mix[0] + mix[1] + mix[2])
+            {
+                fields[i].set(value > 0 ? "RUNNING" : "WAITING");
+            }
+            else
+            {
+                fields[i].set(value > 0);
+            }
+        }
+    }
+
+    private final Random random = new Random(1);
+
+    private double value(long n, int field)
+    {
+        switch (pattern)
+        {
+            case CONSTANT:
+                return field;
+            case RAMP:
+                return n + field;
+            case NOISE:
+                return random.nextGaussian() * 100;
+            default:
+                return 100 * Math.sin(n * 0.01 + field);
+        }
+    }
+
+    /*
+     * Parks until shortly before the deadline, then spins, so the loop timing
+     * reflects the code under test rather than the scheduler's wake-up latency.
+     */
+    private static void waitUntil(long deadline)
+    {
+        while (true)
+        {
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0)
+            {
+                return;
+            }
+            if (remaining > SPIN_THRESHOLD_NANOS)
+            {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            }
+        }
+    }
+
+    /*
+     * Each load thread alternates between arithmetic and short-lived
+     * allocations, standing in for the SDK's other threads and their garbage.
+     */
+    private Thread[] startLoad()
+    {
+        loadRunning = true;
+        Thread[] threads = new Thread[loadThreads];
+
+        for (int i = 0; i < loadThreads; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    double x = 0;
+                    ArrayList<double[]> garbage = new ArrayList<>();
+
+                    while (loadRunning)
+                    {
+                        for (int j = 0; j < 10000; j++)
+                        {
+                            x += Math.sqrt(j + x);
+                        }
+
+                        garbage.add(new double[256]);
+                        if (garbage.size() > 64)
+                        {
+                            garbage.clear();
+                        }
+
+                        LockSupport.parkNanos(100000);
+                    }
+
+                    if (x == 42)
+                    {
+                        System.out.println(x);
+                    }
+                }
+            }, "Load " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        return threads;
+    }
+
+    private void stopLoad(Thread[] threads) throws InterruptedException
+    {
+        loadRunning = false;
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+    }
+
+    /*
+     * The loop periods and values of an existing datalog. The first column must
+     * be the timestamp in seconds (Datalogger's "Timestamp" or
+     * W_Datalogger_v05's "Time"); the remaining columns become the fields.
+     * A later header line (from Datalogger.addField()) is read by column name:
+     * new names become new fields, blank in the lines before it.
+     */
+    static class Replay
+    {
+        int lines;
+        int columns;
+        String[] names;
+        long[] periodNanos;
+        String[][] text;
+        double[][] numbers;
+
+        static Replay load(String filepath) throws IOException
+        {
+            ArrayList<String[]> rows = new ArrayList<>();
+            ArrayList<String> names = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new FileReader(new File(filepath)));
+
+            try
+            {
+                String line = reader.readLine();
+                if (line == null) throw new IOException("Empty datalog: " + filepath);
+
+                String[] header = line.split(",", -1);
+                int[] columnOf = columnsOf(header, names);
+
+                while ((line = reader.readLine()) != null)
+                {
+                    String[] cells = line.split(",", -1);
+
+                    if (cells[0].equals(header[0]))
+                    {
+                        columnOf = columnsOf(cells, names);
+                    }
+                    else if (cells.length > 1 && isNumber(cells[0]))
+                    {
+                        // The time, then each cell in its field's place.
+                        String[] row = new String[names.size() + 1];
+                        row[0] = cells[0];
+                        for (int i = 1; i < cells.length && i < columnOf.length; i++)
+                        {
+                            row[columnOf[i] + 1] = cells[i];
+                        }
+                        rows.add(row);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            Replay replay = new Replay();
+            replay.lines = rows.size();
+            replay.columns = names.size();
+            replay.names = names.toArray(new String[0]);
+
+            replay.periodNanos = new long[replay.lines];
+            replay.text = new String[replay.lines][replay.columns];
+            replay.numbers = new double[replay.lines][replay.columns];
+
+            double lastTime = Double.NaN;
+            for (int n = 0; n < replay.lines; n++)
+            {
+                String[] row = rows.get(n);
+                double time = Double.parseDouble(row[0]);
+                replay.periodNanos[n] = Double.isNaN(lastTime) ? 0 : Math.max(0, (long) ((time - lastTime) * 1e9));
+                lastTime = time;
+
+                for (int i = 0; i < replay.columns; i++)
+                {
+                    String cell = i + 1 < row.length && row[i + 1] != null ? row[i + 1] : "";
+                    replay.text[n][i] = cell;
+                    replay.numbers[n][i] = isNumber(cell) ? Double.parseDouble(cell) : Double.NaN;
+                }
+            }
+
+            return replay;
+        }
+
+        void setFields(Datalogger.GenericField[] fields, int n)
+        {
+            for (int i = 0; i < fields.length; i++)
+            {
+                if (Double.isNaN(numbers[n][i]))
+                {
+                    fields[i].set(text[n][i]);
+                }
+                else
+                {
+                    fields[i].set(numbers[n][i]);
+                }
+            }
+        }
+
+        // Where each cell of a header's lines goes; names not seen before are added.
+        private static int[] columnsOf(String[] header, ArrayList<String> names)
+        {
+            int[] columnOf = new int[header.length];
+
+            for (int i = 1; i < header.length; i++)
+            {
+                int column = names.indexOf(header[i]);
+                if (column < 0)
+                {
+                    column = names.size();
+                    names.add(header[i]);
+                }
+                columnOf[i] = column;
+            }
+            return columnOf;
+        }
+
+        private static boolean isNumber(String cell)
+        {
+            try
+            {
+                Double.parseDouble(cell);
+                return !cell.isEmpty();
+            }
+            catch (NumberFormatException e)
+            {
+                return false;
+            }
+        }
+    }
+}
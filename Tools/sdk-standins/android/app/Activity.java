@@ -0,0 +1,11 @@
+/*
+Off-robot stand-in for the Android Activity class, so that Datalogger can be
+compiled and run on a desktop JVM by the benchmarks and test harness in Tools.
+Do not copy this file to the robot.
+*/
+
+package android.app;
+
+public class Activity
+{
+}
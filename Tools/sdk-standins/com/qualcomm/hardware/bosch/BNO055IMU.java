@@ -0,0 +1,29 @@
+/*
+Off-robot stand-in for the FTC SDK BNO055IMU interface, with the methods the
+Datalogging examples use to read the heading. Do not copy this file to the
+robot.
+*/
+
+package com.qualcomm.hardware.bosch;
+
+import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
+
+public interface BNO055IMU
+{
+    enum AngleUnit
+    {
+        DEGREES,
+        RADIANS
+    }
+
+    class Parameters
+    {
+        public AngleUnit angleUnit = AngleUnit.RADIANS;
+    }
+
+    boolean initialize(Parameters parameters);
+
+    Parameters getParameters();
+
+    Orientation getAngularOrientation();
+}
@@ -0,0 +1,17 @@
+/*
+Off-robot stand-in for the FTC SDK OpMode class. It has only what the
+Datalogging tools need. Do not copy this file to the robot.
+*/
+
+package com.qualcomm.robotcore.eventloop.opmode;
+
+public abstract class OpMode
+{
+    public abstract void init();
+
+    public abstract void loop();
+
+    public void start() {}
+
+    public void stop() {}
+}
@@ -0,0 +1,22 @@
+/*
+Off-robot stand-in for the FTC SDK OpModeManagerNotifier interface, with the
+same listener methods Datalogger uses. Do not copy this file to the robot.
+*/
+
+package com.qualcomm.robotcore.eventloop.opmode;
+
+public interface OpModeManagerNotifier
+{
+    OpMode registerListener(Notifications listener);
+
+    void unregisterListener(Notifications listener);
+
+    interface Notifications
+    {
+        void onOpModePreInit(OpMode opMode);
+
+        void onOpModePreStart(OpMode opMode);
+
+        void onOpModePostStop(OpMode opMode);
+    }
+}
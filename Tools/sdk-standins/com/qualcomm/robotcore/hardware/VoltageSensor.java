@@ -0,0 +1,11 @@
+/*
+Off-robot stand-in for the FTC SDK VoltageSensor interface, with the method
+OpModes use to read the battery. Do not copy this file to the robot.
+*/
+
+package com.qualcomm.robotcore.hardware;
+
+public interface VoltageSensor
+{
+    double getVoltage();
+}
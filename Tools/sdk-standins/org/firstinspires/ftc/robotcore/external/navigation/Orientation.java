@@ -0,0 +1,26 @@
+/*
+Off-robot stand-in for the FTC SDK Orientation class: the three angles and
+when they were read. Do not copy this file to the robot.
+*/
+
+package org.firstinspires.ftc.robotcore.external.navigation;
+
+public class Orientation
+{
+    public float firstAngle;
+    public float secondAngle;
+    public float thirdAngle;
+    public long acquisitionTime;
+
+    public Orientation()
+    {
+    }
+
+    public Orientation(float firstAngle, float secondAngle, float thirdAngle, long acquisitionTime)
+    {
+        this.firstAngle = firstAngle;
+        this.secondAngle = secondAngle;
+        this.thirdAngle = thirdAngle;
+        this.acquisitionTime = acquisitionTime;
+    }
+}
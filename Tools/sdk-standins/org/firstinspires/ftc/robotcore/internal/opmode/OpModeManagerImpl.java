@@ -0,0 +1,79 @@
+/*
+Off-robot stand-in for the FTC SDK OpModeManagerImpl.
+
+Like the real one, it holds its listeners only weakly, so code that forgets
+to keep a reference to its listener misbehaves here too. The
+dispatch...() methods let a desktop harness play the part of the SDK event
+loop: INIT, START and the post-stop notification that closes a Datalogger.
+Do not copy this file to the robot.
+*/
+
+package org.firstinspires.ftc.robotcore.internal.opmode;
+
+import android.app.Activity;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.OpModeManagerNotifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+public class OpModeManagerImpl implements OpModeManagerNotifier
+{
+    private static final OpModeManagerImpl instance = new OpModeManagerImpl();
+
+    private final Map<Notifications, Boolean> listeners = Collections.synchronizedMap(new WeakHashMap<Notifications, Boolean>());
+
+    public static OpModeManagerImpl getOpModeManagerOfActivity(Activity activity)
+    {
+        return instance;
+    }
+
+    @Override
+    public OpMode registerListener(Notifications listener)
+    {
+        listeners.put(listener, Boolean.TRUE);
+        return null;
+    }
+
+    @Override
+    public void unregisterListener(Notifications listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public void dispatchPreInit(OpMode opMode)
+    {
+        for (Notifications listener : snapshotListeners())
+        {
+            listener.onOpModePreInit(opMode);
+        }
+    }
+
+    public void dispatchPreStart(OpMode opMode)
+    {
+        for (Notifications listener : snapshotListeners())
+        {
+            listener.onOpModePreStart(opMode);
+        }
+    }
+
+    public void dispatchPostStop(OpMode opMode)
+    {
+        for (Notifications listener : snapshotListeners())
+        {
+            listener.onOpModePostStop(opMode);
+        }
+    }
+
+    // Listeners unregister themselves while being notified, so iterate over a copy.
+    private ArrayList<Notifications> snapshotListeners()
+    {
+        synchronized (listeners)
+        {
+            return new ArrayList<>(listeners.keySet());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+Off-robot stand-in for the FTC SDK AppUtil class. Do not copy this file to
+the robot.
+*/
+
+package org.firstinspires.ftc.robotcore.internal.system;
+
+import android.app.Activity;
+
+public class AppUtil
+{
+    private static final AppUtil instance = new AppUtil();
+    private final Activity activity = new Activity();
+
+    public static AppUtil getInstance()
+    {
+        return instance;
+    }
+
+    public Activity getActivity()
+    {
+        return activity;
+    }
+}